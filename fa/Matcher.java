@@ -0,0 +1,25 @@
+package fa;
+
+/**
+ * Common interface of the compiled recognizers built from an FA.
+ * As with DFAInterface.accepts, the input "e" stands for the
+ * empty string.
+ */
+public interface Matcher {
+
+	/**
+	 * Decides whether the input is in the language of the automaton.
+	 * @param input - the input string
+	 * @return true if input is in the language and false otherwise
+	 */
+	public abstract boolean accepts(CharSequence input);
+
+	/**
+	 * Checks whether the input is the "e" encoding of the empty string.
+	 * @param input - the input string
+	 * @return true if the input denotes the empty string
+	 */
+	public static boolean isEmptyString(CharSequence input) {
+		return input.length() == 0 || (input.length() == 1 && input.charAt(0) == 'e');
+	}
+}
@@ -0,0 +1,134 @@
+package fa.dfa;
+
+import java.util.Random;
+
+import fa.Matcher;
+
+/**
+ * Compares the generated matcher of BytecodeMatcher with the table of
+ * CompiledDFA, on one long input and on many short ones.
+ *
+ * The keyword searches are the workload the generated code is for: almost
+ * every character keeps the automaton on the same transition, so its
+ * branches predict. On one long input it is about a quarter to a third
+ * faster than the table, and on short inputs, where the cost of a call
+ * dominates, the two are about even. The random DFAs move
+ * between states at random, every branch is a coin flip, and the table is
+ * faster; compile(DFAProfile) sees that in the profile and keeps the table.
+ *
+ * Run with java fa.dfa.BytecodeBenchmark. Times are the best of 10 runs
+ * after a warm up, in milliseconds.
+ */
+public class BytecodeBenchmark {
+	private static final int LONG = 1 << 20;
+	private static final int SHORT = 32;
+
+	/**
+	 * @param args - unused
+	 */
+	public static void main(String[] args) {
+		Random random = new Random(1);
+		char[] letters = "abcdefghijklmnopqrstuvwxyz ".toCharArray();
+		String text = randomString(random, letters, LONG);
+		System.out.printf("%-42s %6s %8s %10s %9s %s%n", "workload", "states", "table", "generated",
+				"predict", "compile(profile)");
+		for (String word : new String[] { "needle", "automaton", "nondeterministic finite" }) {
+			run("search \"" + word + "\"", search(word, letters), text);
+		}
+		char[] bits = { '0', '1' };
+		String input = randomString(random, bits, LONG);
+		for (int n : new int[] { 20, 100, 400 }) {
+			run("random DFA", randomDFA(random, n, bits), input);
+		}
+	}
+
+	private static void run(String name, CompiledDFA dfa, String text) {
+		String[] pieces = new String[text.length() / SHORT];
+		for (int i = 0; i < pieces.length; i++) {
+			pieces[i] = text.substring(i * SHORT, (i + 1) * SHORT);
+		}
+		DFAProfile profile = new DFAProfile(dfa);
+		profile.accepts(text);
+		Matcher generated = BytecodeMatcher.compile(dfa);
+		String choice = BytecodeMatcher.compile(profile) == dfa ? "table" : "generated";
+		String[] whole = { text };
+		for (String[] inputs : new String[][] { whole, pieces }) {
+			String label = name + (inputs == whole ? ", 1M chars" : ", 32 chars");
+			String gen = generated == dfa ? "too big" : String.format("%.2f", time(generated, inputs));
+			System.out.printf("%-42s %6d %8.2f %10s %9.3f %s%n", label, dfa.numStates(), time(dfa, inputs), gen,
+					profile.getPredictability(), choice);
+		}
+	}
+
+	/**
+	 * @return the best time of 10 runs over all inputs, in milliseconds
+	 */
+	private static double time(Matcher m, String[] inputs) {
+		int accepted = 0;
+		long best = Long.MAX_VALUE;
+		for (int run = 0; run < 30; run++) {
+			long start = System.nanoTime();
+			for (String s : inputs) {
+				if (m.accepts(s)) {
+					accepted++;
+				}
+			}
+			if (run >= 20) {
+				best = Math.min(best, System.nanoTime() - start);
+			}
+		}
+		// keep the result alive
+		if (accepted < 0) {
+			System.out.println(accepted);
+		}
+		return best / 1e6;
+	}
+
+	private static String randomString(Random random, char[] symbols, int length) {
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append(symbols[random.nextInt(symbols.length)]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Builds the DFA for the strings that contain word: state q is the
+	 * length of the longest prefix of word that the input read so far ends
+	 * with, and the final state loops.
+	 */
+	private static CompiledDFA search(String word, char[] symbols) {
+		int m = word.length();
+		int k = symbols.length;
+		int[] delta = new int[(m + 1) * k];
+		boolean[] finals = new boolean[m + 1];
+		finals[m] = true;
+		for (int q = 0; q <= m; q++) {
+			for (int i = 0; i < k; i++) {
+				if (q == m) {
+					delta[q * k + i] = m;
+					continue;
+				}
+				String read = word.substring(0, q) + symbols[i];
+				int next = Math.min(m, read.length());
+				while (next > 0 && !read.endsWith(word.substring(0, next))) {
+					next--;
+				}
+				delta[q * k + i] = next;
+			}
+		}
+		return new CompiledDFA(m + 1, 0, symbols.clone(), delta, finals);
+	}
+
+	private static CompiledDFA randomDFA(Random random, int n, char[] symbols) {
+		int[] delta = new int[n * symbols.length];
+		for (int i = 0; i < delta.length; i++) {
+			delta[i] = random.nextInt(n);
+		}
+		boolean[] finals = new boolean[n];
+		for (int s = 0; s < n; s++) {
+			finals[s] = random.nextBoolean();
+		}
+		return new CompiledDFA(n, 0, symbols.clone(), delta, finals);
+	}
+}
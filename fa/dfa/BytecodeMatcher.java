@@ -0,0 +1,107 @@
+package fa.dfa;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import fa.Matcher;
+
+/**
+ * Matcher for small, hot DFAs whose transitions are compiled to JVM code.
+ * compile() generates a hidden class with one loop that switches on the
+ * current state and then branches on the symbol, so each transition is a
+ * jump and the transition table is not consulted. When the input keeps the automaton in a few
+ * states the branches predict well, and the CPU runs ahead through the
+ * next transitions instead of waiting for each table load. On input that
+ * moves between states unpredictably the table is faster, so
+ * compile(DFAProfile) only generates code when a profile of typical input
+ * shows the branches will predict; BytecodeBenchmark measures both.
+ *
+ * HotSpot never JIT-compiles a method of more than 8000 bytes of bytecode,
+ * which limits the generated code to about 300 states over two symbols, and
+ * fewer over larger alphabets. Larger DFAs are matched with their table.
+ */
+public abstract class BytecodeMatcher implements Matcher {
+	// the generated code beats the table above about 0.9, see BytecodeBenchmark
+	private static final double MIN_PREDICTABILITY = 0.95;
+
+	final int[] symbolIndex; // column of each character, -1 if not a symbol
+
+	/**
+	 * Only generated subclasses exist.
+	 * @param symbolIndex the column of each character, -1 for characters
+	 * that are not symbols
+	 */
+	protected BytecodeMatcher(int[] symbolIndex) {
+		this.symbolIndex = symbolIndex;
+	}
+
+	@Override
+	public final boolean accepts(CharSequence input) {
+		return run(Matcher.isEmptyString(input) ? "" : input);
+	}
+
+	/**
+	 * Runs the compiled automaton over the whole input.
+	 * @param input the input, without the "e" convention
+	 * @return true if input is in the language
+	 */
+	protected abstract boolean run(CharSequence input);
+
+	/**
+	 * Chooses between the generated code and the table with a profile of a
+	 * sample workload. Code is only generated if at least 95% of the profiled
+	 * steps took the most common transition of their state, since it is
+	 * slower than the table when the branches do not predict.
+	 * @param profile a profile of the DFA on typical input
+	 * @return the generated matcher, or the profiled DFA's table
+	 */
+	public static Matcher compile(DFAProfile profile) {
+		if (profile.getPredictability() < MIN_PREDICTABILITY) {
+			return profile.getDFA();
+		}
+		return compile(profile.getDFA());
+	}
+
+	/**
+	 * Compiles a DFA into a hidden class, if it is small enough.
+	 * @param dfa the DFA to compile
+	 * @return the generated matcher, or the table form of dfa if it is too
+	 * large for the JIT to compile the generated code
+	 */
+	public static Matcher compile(DFA dfa) {
+		return compile(dfa.compile());
+	}
+
+	/**
+	 * Compiles a table form DFA into a hidden class, if it is small enough.
+	 * @param dfa the DFA to compile
+	 * @return the generated matcher, or dfa itself if it is too large for
+	 * the JIT to compile the generated code
+	 */
+	public static Matcher compile(CompiledDFA dfa) {
+		byte[] bytes;
+		try {
+			bytes = new MatcherClassWriter(dfa).toByteArray();
+		} catch (IllegalArgumentException e) {
+			return dfa;
+		}
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+			char max = 0;
+			for (char c : dfa.getSymbols()) {
+				max = (char) Math.max(max, c);
+			}
+			int[] symbolIndex = new int[dfa.getSymbols().length == 0 ? 0 : max + 1];
+			for (int c = 0; c < symbolIndex.length; c++) {
+				symbolIndex[c] = dfa.symbolIndex((char) c);
+			}
+			return (BytecodeMatcher) lookup
+					.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, int[].class))
+					.invoke(symbolIndex);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException("Could not load the generated matcher", t);
+		}
+	}
+}
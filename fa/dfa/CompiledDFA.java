@@ -0,0 +1,339 @@
+package fa.dfa;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import fa.Matcher;
+
+/**
+ * Table driven form of a DFA. States are numbered 0..n-1 and the
+ * alphabet symbols 0..k-1, and delta is a flat row-major table of
+ * n*k entries. A negative entry means there is no transition, and the
+ * input is rejected.
+ *
+ * States from which no final state can be reached are marked dead when
+ * the tables are built, and matching stops as soon as it enters one.
+ */
+public class CompiledDFA implements LazyDFA {
+	private final int numStates;
+	private final int start;
+	private final char[] symbols;
+	private final int[] symbolIndex;
+	private final int[] delta;
+	private final boolean[] finals;
+	private final boolean[] dead;
+
+	/**
+	 * Builds a compiled DFA from its raw tables
+	 * @param numStates the number of states
+	 * @param start the start state id
+	 * @param symbols the alphabet, symbol i labels column i of delta
+	 * @param delta the transition table, delta[s * symbols.length + i]
+	 * @param finals finals[s] is true if s is a final state
+	 */
+	public CompiledDFA(int numStates, int start, char[] symbols, int[] delta, boolean[] finals) {
+		if (start < 0 || start >= numStates || delta.length != numStates * symbols.length
+				|| finals.length != numStates) {
+			throw new IllegalArgumentException("Inconsistent DFA tables");
+		}
+		this.numStates = numStates;
+		this.start = start;
+		this.symbols = symbols;
+		this.delta = delta;
+		this.finals = finals;
+		char max = 0;
+		for (char c : symbols) {
+			max = (char) Math.max(max, c);
+		}
+		symbolIndex = new int[symbols.length == 0 ? 0 : max + 1];
+		Arrays.fill(symbolIndex, -1);
+		for (int i = 0; i < symbols.length; i++) {
+			symbolIndex[symbols[i]] = i;
+		}
+		dead = findDeadStates();
+	}
+
+	/**
+	 * Finds the states that are not co-accessible, by a backward search from
+	 * the final states over the reversed transition table.
+	 */
+	private boolean[] findDeadStates() {
+		int k = symbols.length;
+		int[] inStart = new int[numStates + 1];
+		for (int to : delta) {
+			if (to >= 0) {
+				inStart[to + 1]++;
+			}
+		}
+		for (int s = 0; s < numStates; s++) {
+			inStart[s + 1] += inStart[s];
+		}
+		int[] fill = Arrays.copyOf(inStart, numStates);
+		int[] preds = new int[inStart[numStates]];
+		for (int i = 0; i < delta.length; i++) {
+			if (delta[i] >= 0) {
+				preds[fill[delta[i]]++] = i / k;
+			}
+		}
+		boolean[] ret = new boolean[numStates];
+		Arrays.fill(ret, true);
+		int[] queue = new int[numStates];
+		int tail = 0;
+		for (int s = 0; s < numStates; s++) {
+			if (finals[s]) {
+				ret[s] = false;
+				queue[tail++] = s;
+			}
+		}
+		for (int head = 0; head < tail; head++) {
+			int s = queue[head];
+			for (int i = inStart[s]; i < inStart[s + 1]; i++) {
+				if (ret[preds[i]]) {
+					ret[preds[i]] = false;
+					queue[tail++] = preds[i];
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Removes the states that are unreachable from the start state or dead.
+	 * Transitions into removed states become missing transitions, so the
+	 * result may be partial. The start state is always kept.
+	 * @return the trimmed DFA
+	 */
+	public CompiledDFA trim() {
+		int k = symbols.length;
+		int[] newId = new int[numStates];
+		Arrays.fill(newId, -1);
+		int[] order = new int[numStates];
+		int count = 0;
+		newId[start] = count;
+		order[count++] = start;
+		for (int head = 0; head < count; head++) {
+			int s = order[head];
+			for (int sym = 0; sym < k; sym++) {
+				int to = delta[s * k + sym];
+				if (to >= 0 && !dead[to] && newId[to] < 0) {
+					newId[to] = count;
+					order[count++] = to;
+				}
+			}
+		}
+		int[] newDelta = new int[count * k];
+		boolean[] newFinals = new boolean[count];
+		for (int i = 0; i < count; i++) {
+			newFinals[i] = finals[order[i]];
+			for (int sym = 0; sym < k; sym++) {
+				int to = delta[order[i] * k + sym];
+				newDelta[i * k + sym] = to < 0 ? -1 : newId[to];
+			}
+		}
+		return new CompiledDFA(count, 0, symbols.clone(), newDelta, newFinals);
+	}
+
+	/**
+	 * Compiles a DFA. The states keep the order of dfa.getStates().
+	 * A DFA without a start state, which NFA.getDFA() builds for an NFA
+	 * with an empty alphabet, accepts nothing and compiles to a single
+	 * rejecting state.
+	 * @param dfa the DFA to compile
+	 * @return the table form of dfa
+	 */
+	public static CompiledDFA compile(DFA dfa) {
+		char[] symbols = new char[dfa.getABC().size()];
+		int k = 0;
+		for (char c : dfa.getABC()) {
+			symbols[k++] = c;
+		}
+		if (dfa.getStartState() == null) {
+			int[] delta = new int[symbols.length];
+			Arrays.fill(delta, -1);
+			return new CompiledDFA(1, 0, symbols, delta, new boolean[1]);
+		}
+		Map<DFAState, Integer> ids = new HashMap<DFAState, Integer>();
+		for (DFAState s : dfa.getStates()) {
+			ids.put(s, ids.size());
+		}
+		int n = ids.size();
+		int[] delta = new int[n * symbols.length];
+		boolean[] finals = new boolean[n];
+		for (DFAState s : dfa.getStates()) {
+			int id = ids.get(s);
+			finals[id] = s.isFinal();
+			for (int i = 0; i < symbols.length; i++) {
+				DFAState to = s.peekTo(symbols[i]);
+				delta[id * symbols.length + i] = to == null ? -1 : ids.get(to);
+			}
+		}
+		return new CompiledDFA(n, ids.get(dfa.getStartState()), symbols, delta, finals);
+	}
+
+	/**
+	 * Converts the tables back to a DFA whose states are named by their ids.
+	 * If some transitions are missing they go to an added state named
+	 * "dead" that loops on every symbol, so delta is total again.
+	 * @return the DFA
+	 */
+	public DFA toDFA() {
+		DFA ret = new DFA();
+		DFAState[] states = new DFAState[numStates];
+		for (int s = 0; s < numStates; s++) {
+			states[s] = new DFAState(String.valueOf(s), finals[s]);
+			ret.addState(states[s]);
+		}
+		ret.setStartState(states[start]);
+		DFAState sink = null;
+		int k = symbols.length;
+		for (int s = 0; s < numStates; s++) {
+			for (int sym = 0; sym < k; sym++) {
+				int to = delta[s * k + sym];
+				if (to < 0 && sink == null) {
+					sink = new DFAState("dead");
+					ret.addState(sink);
+					for (char c : symbols) {
+						ret.addTransition("dead", c, "dead");
+					}
+				}
+				ret.addTransition(String.valueOf(s), symbols[sym], to < 0 ? "dead" : String.valueOf(to));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Builds the same DFA with its states renumbered.
+	 * @param order order[i] is the old id of the state that gets id i,
+	 * a permutation of 0..n-1
+	 * @return the renumbered DFA
+	 */
+	public CompiledDFA renumber(int[] order) {
+		int k = symbols.length;
+		int[] newId = new int[numStates];
+		Arrays.fill(newId, -1);
+		for (int i = 0; i < numStates; i++) {
+			newId[order[i]] = i;
+		}
+		int[] newDelta = new int[delta.length];
+		boolean[] newFinals = new boolean[numStates];
+		for (int i = 0; i < numStates; i++) {
+			int old = order[i];
+			newFinals[i] = finals[old];
+			for (int sym = 0; sym < k; sym++) {
+				int to = delta[old * k + sym];
+				newDelta[i * k + sym] = to < 0 ? -1 : newId[to];
+			}
+		}
+		return new CompiledDFA(numStates, newId[start], symbols.clone(), newDelta, newFinals);
+	}
+
+	@Override
+	public boolean accepts(CharSequence input) {
+		if (Matcher.isEmptyString(input)) {
+			return finals[start];
+		}
+		int state = run(start, input, 0, input.length());
+		return state >= 0 && finals[state];
+	}
+
+	/**
+	 * Missing transitions and transitions into dead states both lead to the
+	 * rejecting sink.
+	 */
+	@Override
+	public int step(int state, char c) {
+		int sym = symbolIndex(c);
+		if (state < 0 || sym < 0) {
+			return -1;
+		}
+		int to = delta[state * symbols.length + sym];
+		return to < 0 || dead[to] ? -1 : to;
+	}
+
+	/**
+	 * A compiled DFA is already materialized.
+	 */
+	@Override
+	public CompiledDFA materialize() {
+		return this;
+	}
+
+	/**
+	 * Runs the DFA over input[from, to) starting in state.
+	 * @param state the state to start in
+	 * @param input the input string
+	 * @param from the first index to read
+	 * @param to the index after the last one to read
+	 * @return the state reached, or -1 if the input was rejected on the way
+	 */
+	int run(int state, CharSequence input, int from, int to) {
+		int k = symbols.length;
+		if (dead[state]) {
+			return -1;
+		}
+		for (int i = from; i < to; i++) {
+			int sym = symbolIndex(input.charAt(i));
+			state = sym < 0 ? -1 : delta[state * k + sym];
+			if (state < 0 || dead[state]) {
+				return -1;
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * @return the number of states
+	 */
+	public int numStates() {
+		return numStates;
+	}
+
+	/**
+	 * @return the start state id
+	 */
+	public int getStartState() {
+		return start;
+	}
+
+	/**
+	 * @param state a state id
+	 * @return true if state is final
+	 */
+	public boolean isFinal(int state) {
+		return finals[state];
+	}
+
+	/**
+	 * @param state a state id
+	 * @return true if no final state can be reached from state
+	 */
+	public boolean isDead(int state) {
+		return dead[state];
+	}
+
+	/**
+	 * @return a copy of the alphabet in column order
+	 */
+	public char[] getSymbols() {
+		return symbols.clone();
+	}
+
+	/**
+	 * @param c a character
+	 * @return the column of c, or -1 if c is not in the alphabet
+	 */
+	public int symbolIndex(char c) {
+		return c < symbolIndex.length ? symbolIndex[c] : -1;
+	}
+
+	/**
+	 * @param state the source state id
+	 * @param sym the column of the symbol
+	 * @return the target state id, or -1 if there is no transition
+	 */
+	public int next(int state, int sym) {
+		return delta[state * symbols.length + sym];
+	}
+}
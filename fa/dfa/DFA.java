@@ -1,6 +1,12 @@
 package fa.dfa;
 
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -11,11 +17,16 @@ import java.util.Set;
  */
 public class DFA implements DFAInterface{
 	private Set<DFAState> states;
+	private Map<String, DFAState> index;
 	private DFAState start;
 	private Set<Character> ordAbc;
+	// states from which no final state can be reached, never modified
+	// once published; null until accepts() needs it, and after every change
+	private volatile Set<DFAState> deadStates;
 
 	public DFA(){
 		states = new LinkedHashSet<DFAState>();
+		index = new HashMap<String, DFAState>();
 		ordAbc = new LinkedHashSet<Character>();
 	}
 
@@ -61,8 +72,14 @@ public class DFA implements DFAInterface{
 		}
 	}
 
-	private void addState(DFAState s){
+	void addState(DFAState s){
 		states.add(s);
+		index.put(s.getName(), s);
+		deadStates = null;
+	}
+
+	void setStartState(DFAState s){
+		start = s;
 	}
 
 	/* (non-Javadoc)
@@ -80,6 +97,7 @@ public class DFA implements DFAInterface{
 			System.exit(2);
 		}
 		from.addTransition(onSymb, to);
+		deadStates = null;
 		
 		if(!ordAbc.contains(onSymb)){
 			ordAbc.add(onSymb);
@@ -92,14 +110,7 @@ public class DFA implements DFAInterface{
 	 * @return null if no state exist, or DFAState object otherwise.
 	 */
 	private DFAState checkIfExists(String name){
-		DFAState ret = null;
-		for(DFAState s : states){
-			if(s.getName().equals(name)){
-				ret = s;
-				break;
-			}
-		}
-		return ret;
+		return index.get(name);
 	}
 
 	/** (non-Javadoc)
@@ -149,9 +160,18 @@ public class DFA implements DFAInterface{
 		boolean ret = false;
 		char[] inputString = input.toCharArray();
 		DFAState currState = start;
-		//iterate over the chars
+		// a local copy, so a concurrent reset cannot change it mid-run
+		Set<DFAState> dead = deadStates;
+		if(dead == null){
+			dead = findDeadStates();
+			deadStates = dead;
+		}
+		//iterate over the chars, no final state is reachable once dead
 		if(!(inputString.length==1 && inputString[0] == 'e')){
 			for(char c : inputString){
+				if(dead.contains(currState)){
+					break;
+				}
 				currState = currState.getTo(c);
 			}
 		}
@@ -191,4 +211,145 @@ public class DFA implements DFAInterface{
 	public Set<Character> getABC() {
 		return ordAbc;
 	}
+
+	/**
+	 * Finds every state from which no final state can be reached, by a
+	 * backward search from the final states. It only reads the DFA, so
+	 * concurrent calls of accepts() cannot see each other's work.
+	 * @return the dead states, unmodifiable
+	 */
+	private Set<DFAState> findDeadStates(){
+		Map<DFAState, Set<DFAState>> preds = new HashMap<DFAState, Set<DFAState>>();
+		for(DFAState s : states){
+			for(char c : ordAbc){
+				DFAState to = s.peekTo(c);
+				if(to != null){
+					if(!preds.containsKey(to)){
+						preds.put(to, new HashSet<DFAState>());
+					}
+					preds.get(to).add(s);
+				}
+			}
+		}
+		Set<DFAState> live = new HashSet<DFAState>();
+		Deque<DFAState> queue = new ArrayDeque<DFAState>();
+		for(DFAState s : states){
+			if(s.isFinal()){
+				live.add(s);
+				queue.add(s);
+			}
+		}
+		while(!queue.isEmpty()){
+			Set<DFAState> p = preds.get(queue.poll());
+			if(p != null){
+				for(DFAState s : p){
+					if(live.add(s)){
+						queue.add(s);
+					}
+				}
+			}
+		}
+		Set<DFAState> dead = new HashSet<DFAState>();
+		for(DFAState s : states){
+			if(!live.contains(s)){
+				dead.add(s);
+			}
+		}
+		return Collections.unmodifiableSet(dead);
+	}
+
+	/**
+	 * Trims the DFA: states that cannot be reached from the start
+	 * state are removed, and all dead states are merged into a single
+	 * sink that loops on every symbol, so delta stays total.
+	 */
+	public void trim(){
+		Set<DFAState> dead = findDeadStates();
+		Set<DFAState> reachable = new LinkedHashSet<DFAState>();
+		Deque<DFAState> queue = new ArrayDeque<DFAState>();
+		reachable.add(start);
+		queue.add(start);
+		while(!queue.isEmpty()){
+			DFAState s = queue.poll();
+			for(char c : ordAbc){
+				DFAState to = s.peekTo(c);
+				if(to != null && reachable.add(to)){
+					queue.add(to);
+				}
+			}
+		}
+		DFAState sink = null;
+		for(DFAState s : states){
+			if(reachable.contains(s) && dead.contains(s)){
+				sink = s;
+				break;
+			}
+		}
+		Set<DFAState> kept = new LinkedHashSet<DFAState>();
+		for(DFAState s : states){
+			if(!reachable.contains(s) || (dead.contains(s) && s != sink)){
+				continue;
+			}
+			kept.add(s);
+			for(char c : ordAbc){
+				DFAState to = s.peekTo(c);
+				if(to != null && dead.contains(to)){
+					s.addTransition(c, sink);
+				}
+			}
+		}
+		states = kept;
+		index.clear();
+		for(DFAState s : states){
+			index.put(s.getName(), s);
+		}
+		deadStates = null;
+	}
+
+	/**
+	 * Builds an independent copy of the DFA, with the same state names,
+	 * state order and alphabet order, so changing one of them does not
+	 * change the other.
+	 * @return the copy
+	 */
+	public DFA copy(){
+		DFA ret = new DFA();
+		Map<DFAState, DFAState> copies = new HashMap<DFAState, DFAState>();
+		for(DFAState s : states){
+			DFAState c = new DFAState(s.getName(), s.isFinal());
+			copies.put(s, c);
+			ret.addState(c);
+		}
+		ret.start = copies.get(start);
+		ret.ordAbc.addAll(ordAbc);
+		for(DFAState s : states){
+			for(char c : ordAbc){
+				DFAState to = s.peekTo(c);
+				if(to != null){
+					copies.get(s).addTransition(c, copies.get(to));
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Compiles the DFA into its table form, which is what the
+	 * faster matchers run on.
+	 * @return the compiled DFA
+	 */
+	public CompiledDFA compile() {
+		return CompiledDFA.compile(this);
+	}
+
+	/**
+	 * Builds the minimal DFA for the same language, with Hopcroft's
+	 * algorithm on the compiled tables. The states of the result are
+	 * named 0..n-1 in breadth first order from the start state, plus
+	 * a "dead" sink if one is needed.
+	 * @return the minimal DFA
+	 */
+	public DFA minimize() {
+		return Minimizer.minimize(compile()).toDFA();
+	}
 }
@@ -0,0 +1,169 @@
+package fa.dfa;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import fa.Matcher;
+
+/**
+ * Profiling mode for a compiled DFA. accepts() behaves like the DFA's own
+ * accepts() but also counts how often every state is visited and every
+ * transition taken. After a sample workload, relayout() renumbers the
+ * states so that the hot ones sit next to each other in the transition
+ * table, which keeps the working set of a table larger than the cache
+ * small.
+ */
+public class DFAProfile implements Matcher {
+	private final CompiledDFA dfa;
+	private final int numSymbols;
+	private final long[] visits;
+	private final long[] taken;
+
+	/**
+	 * @param dfa the DFA to profile
+	 */
+	public DFAProfile(CompiledDFA dfa) {
+		this.dfa = dfa;
+		this.numSymbols = dfa.getSymbols().length;
+		visits = new long[dfa.numStates()];
+		taken = new long[dfa.numStates() * numSymbols];
+	}
+
+	@Override
+	public boolean accepts(CharSequence input) {
+		int state = dfa.getStartState();
+		visits[state]++;
+		if (!Matcher.isEmptyString(input)) {
+			for (int i = 0; i < input.length(); i++) {
+				int sym = dfa.symbolIndex(input.charAt(i));
+				if (sym < 0) {
+					return false;
+				}
+				int next = dfa.next(state, sym);
+				taken[state * numSymbols + sym]++;
+				if (next < 0 || dfa.isDead(next)) {
+					return false;
+				}
+				state = next;
+				visits[state]++;
+			}
+		}
+		return dfa.isFinal(state);
+	}
+
+	/**
+	 * @param state a state id
+	 * @return how often the state was visited
+	 */
+	public long getVisits(int state) {
+		return visits[state];
+	}
+
+	/**
+	 * @param state the source state id
+	 * @param sym the column of the symbol
+	 * @return how often the transition was taken
+	 */
+	public long getTaken(int state, int sym) {
+		return taken[state * numSymbols + sym];
+	}
+
+	/**
+	 * Measures how predictable the profiled runs were: the fraction of the
+	 * transitions taken that went to the target their source state went to
+	 * most often. Rejecting counts as a target of its own.
+	 * @return the fraction, or 1 if no transition was taken
+	 */
+	public double getPredictability() {
+		long total = 0;
+		long common = 0;
+		int[] targets = new int[numSymbols];
+		long[] counts = new long[numSymbols];
+		for (int s = 0; s < dfa.numStates(); s++) {
+			// at most numSymbols distinct targets, so a linear scan will do
+			int distinct = 0;
+			long best = 0;
+			for (int sym = 0; sym < numSymbols; sym++) {
+				long t = taken[s * numSymbols + sym];
+				if (t == 0) {
+					continue;
+				}
+				int to = dfa.next(s, sym);
+				to = to < 0 || dfa.isDead(to) ? -1 : to;
+				int j = 0;
+				while (j < distinct && targets[j] != to) {
+					j++;
+				}
+				if (j == distinct) {
+					targets[distinct] = to;
+					counts[distinct++] = 0;
+				}
+				counts[j] += t;
+				best = Math.max(best, counts[j]);
+				total += t;
+			}
+			common += best;
+		}
+		return total == 0 ? 1 : (double) common / total;
+	}
+
+	/**
+	 * @return the DFA being profiled
+	 */
+	public CompiledDFA getDFA() {
+		return dfa;
+	}
+
+	/**
+	 * Computes the new order of the states: a breadth first search from the
+	 * start state that always expands the most visited state discovered so
+	 * far, and discovers successors in order of decreasing transition counts.
+	 * States the search does not reach keep their relative order at the end.
+	 * @return order[i] is the old id of the state that gets id i
+	 */
+	public int[] getLayout() {
+		int n = dfa.numStates();
+		int[] order = new int[n];
+		boolean[] placed = new boolean[n];
+		boolean[] discovered = new boolean[n];
+		// {-visits, discovery sequence, state}
+		PriorityQueue<long[]> frontier = new PriorityQueue<long[]>((a, b) -> a[0] != b[0]
+				? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+		long seq = 0;
+		int count = 0;
+		frontier.add(new long[] { -visits[dfa.getStartState()], seq++, dfa.getStartState() });
+		discovered[dfa.getStartState()] = true;
+		Integer[] syms = new Integer[numSymbols];
+		while (!frontier.isEmpty()) {
+			int s = (int) frontier.poll()[2];
+			order[count++] = s;
+			placed[s] = true;
+			for (int i = 0; i < numSymbols; i++) {
+				syms[i] = i;
+			}
+			Arrays.sort(syms, (a, b) -> Long.compare(taken[s * numSymbols + b], taken[s * numSymbols + a]));
+			for (int sym : syms) {
+				int t = dfa.next(s, sym);
+				if (t >= 0 && !discovered[t]) {
+					discovered[t] = true;
+					frontier.add(new long[] { -visits[t], seq++, t });
+				}
+			}
+		}
+		for (int s = 0; s < n; s++) {
+			if (!placed[s]) {
+				order[count++] = s;
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Builds the DFA with its states renumbered by getLayout(). The language
+	 * is the same; OffHeapDFA.save writes the reordered table out.
+	 * @return the reordered DFA
+	 */
+	public CompiledDFA relayout() {
+		return dfa.renumber(getLayout());
+	}
+}
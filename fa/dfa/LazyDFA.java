@@ -0,0 +1,105 @@
+package fa.dfa;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import fa.Matcher;
+
+/**
+ * A DFA whose states may be built on demand while it runs. States are
+ * non-negative ids, and -1 is the rejecting sink: a state that is not
+ * final and only leads to itself. Implementations that build states on
+ * demand are not thread safe.
+ */
+public interface LazyDFA extends Matcher {
+
+	/**
+	 * @return the start state, or -1 if the language is empty
+	 */
+	public abstract int getStartState();
+
+	/**
+	 * @param state a state id, or -1
+	 * @param c the next input character
+	 * @return the state reached on c, -1 for the rejecting sink
+	 */
+	public abstract int step(int state, char c);
+
+	/**
+	 * @param state a state id other than -1
+	 * @return true if state is final
+	 */
+	public abstract boolean isFinal(int state);
+
+	/**
+	 * @return the symbols the DFA has transitions on, in column order
+	 */
+	public abstract char[] getSymbols();
+
+	@Override
+	public default boolean accepts(CharSequence input) {
+		int state = getStartState();
+		if (!Matcher.isEmptyString(input)) {
+			for (int i = 0; i < input.length() && state >= 0; i++) {
+				state = step(state, input.charAt(i));
+			}
+		}
+		return state >= 0 && isFinal(state);
+	}
+
+	/**
+	 * Builds every state reachable on getSymbols() and returns the tables.
+	 * Strings with other characters are rejected by the result.
+	 * @return the compiled DFA
+	 */
+	public default CompiledDFA materialize() {
+		char[] symbols = getSymbols();
+		int k = symbols.length;
+		int start = getStartState();
+		if (start < 0) {
+			int[] none = new int[k];
+			Arrays.fill(none, -1);
+			return new CompiledDFA(1, 0, symbols, none, new boolean[] { false });
+		}
+		Map<Integer, Integer> ids = new HashMap<Integer, Integer>();
+		int[] order = new int[16];
+		int[] delta = new int[16 * k];
+		int count = 0;
+		ids.put(start, count);
+		order[count++] = start;
+		for (int head = 0; head < count; head++) {
+			for (int sym = 0; sym < k; sym++) {
+				int to = step(order[head], symbols[sym]);
+				if (to < 0) {
+					delta[head * k + sym] = -1;
+					continue;
+				}
+				Integer id = ids.get(to);
+				if (id == null) {
+					id = count;
+					ids.put(to, id);
+					if (count == order.length) {
+						order = Arrays.copyOf(order, order.length * 2);
+						delta = Arrays.copyOf(delta, order.length * k);
+					}
+					order[count++] = to;
+				}
+				delta[head * k + sym] = id;
+			}
+		}
+		boolean[] finals = new boolean[count];
+		for (int i = 0; i < count; i++) {
+			finals[i] = isFinal(order[i]);
+		}
+		return new CompiledDFA(count, 0, symbols, Arrays.copyOf(delta, count * k), finals);
+	}
+
+	/**
+	 * Materializes the DFA and minimizes the result.
+	 * @return the canonical minimal DFA, see Minimizer
+	 */
+	public default CompiledDFA minimize() {
+		return Minimizer.minimize(materialize());
+	}
+}
@@ -0,0 +1,550 @@
+package fa.dfa;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the class file of a BytecodeMatcher subclass for a compiled DFA.
+ * The run method is a single loop that maps the character to its symbol
+ * column with the table in BytecodeMatcher, dispatches on the current
+ * state with a tableswitch, and then tests the symbol:
+ * <pre>
+ *   n = input.length(); i = 0; state = start;
+ * loop:
+ *   if (i >= n) goto end;
+ *   c = input.charAt(i++);
+ *   if (c >= symbolIndex.length) goto reject;
+ *   sym = symbolIndex[c];
+ *   if (sym < 0) goto reject;
+ *   switch (state) { case k: goto state_k; ...; default: goto reject; }
+ * state_k:
+ *   if (sym == 3) goto to_t; ...; goto to_u;
+ * to_t:
+ *   state = t; goto loop;
+ * end:
+ *   switch (state) { case k: goto accept or reject, as k is final or not; }
+ * accept: return true;
+ * reject: return false;
+ * </pre>
+ * A state block only tests the symbols that do not lead to its most common
+ * target, and falls through to that target, so on input that mostly stays
+ * on one transition per state every branch is predicted. A state with many
+ * distinct targets switches on the symbol instead.
+ *
+ * The goto back to the loop head is an ordinary backward branch, so the
+ * interpreter counts it and a long input gets compiled on-stack, and the
+ * loop is reducible, so the JIT optimizes it like a hand written one.
+ * Transitions into dead states jump to reject directly.
+ * All locals are assigned before the first jump, so every branch target has
+ * the same stack map frame.
+ */
+class MatcherClassWriter {
+	private static final String CLASS_NAME = "fa/dfa/GeneratedMatcher";
+	private static final String SUPER_NAME = "fa/dfa/BytecodeMatcher";
+	// HotSpot does not JIT-compile methods with more bytecode than this
+	// (HugeMethodLimit), and an interpreted matcher is slower than the table
+	static final int MAX_CODE = 8000;
+	// most symbol tests in a state block before it switches instead
+	private static final int MAX_TESTS = 4;
+
+	// local variable slots of run
+	private static final int INPUT = 1;
+	private static final int INDEX = 2;
+	private static final int LENGTH = 3;
+	private static final int STATE = 4;
+	private static final int SYMBOL = 5; // the character, then its column
+	private static final int TABLE = 6;
+
+	private final CompiledDFA dfa;
+	private final Bytes pool = new Bytes();
+	private final Map<String, Integer> poolIndex = new HashMap<String, Integer>();
+	private int poolCount = 1;
+
+	private final Bytes code = new Bytes();
+	private final List<Integer> labels = new ArrayList<Integer>();
+	private final List<int[]> fixups = new ArrayList<int[]>(); // {field position, opcode position, label, width}
+
+	MatcherClassWriter(CompiledDFA dfa) {
+		this.dfa = dfa;
+	}
+
+	/**
+	 * @return the class file
+	 * @throws IllegalArgumentException if the run method would be longer
+	 * than MAX_CODE bytes
+	 */
+	byte[] toByteArray() {
+		int thisClass = classRef(CLASS_NAME);
+		int superClass = classRef(SUPER_NAME);
+		int superInit = memberRef(10, SUPER_NAME, "<init>", "([I)V");
+		int codeAttr = utf8("Code");
+		int stackMapAttr = utf8("StackMapTable");
+		int initName = utf8("<init>");
+		int initDesc = utf8("([I)V");
+		int runName = utf8("run");
+		int runDesc = utf8("(Ljava/lang/CharSequence;)Z");
+		int inputClass = classRef("java/lang/CharSequence");
+		int tableClass = classRef("[I");
+		writeRun();
+		Bytes frames = stackMapTable(thisClass, inputClass, tableClass);
+
+		Bytes out = new Bytes();
+		out.u4(0xCAFEBABE);
+		out.u2(0);
+		out.u2(52);
+		out.u2(poolCount);
+		out.bytes(pool);
+		out.u2(0x0001 | 0x0010 | 0x0020); // public final super
+		out.u2(thisClass);
+		out.u2(superClass);
+		out.u2(0); // interfaces
+		out.u2(0); // fields
+		out.u2(2); // methods
+
+		out.u2(0x0001);
+		out.u2(initName);
+		out.u2(initDesc);
+		out.u2(1);
+		out.u2(codeAttr);
+		out.u4(12 + 6);
+		out.u2(2); // max stack
+		out.u2(2); // max locals
+		out.u4(6);
+		out.u1(0x2A); // aload_0
+		out.u1(0x2B); // aload_1
+		out.u1(0xB7); // invokespecial
+		out.u2(superInit);
+		out.u1(0xB1); // return
+		out.u2(0);
+		out.u2(0);
+
+		out.u2(0x0004 | 0x0010); // protected final
+		out.u2(runName);
+		out.u2(runDesc);
+		out.u2(1);
+		out.u2(codeAttr);
+		out.u4(12 + code.size() + 6 + frames.size());
+		out.u2(2);
+		out.u2(7);
+		out.u4(code.size());
+		out.bytes(code);
+		out.u2(0); // exception table
+		out.u2(1);
+		out.u2(stackMapAttr);
+		out.u4(frames.size());
+		out.bytes(frames);
+
+		out.u2(0); // class attributes
+		return out.toByteArray();
+	}
+
+	private void writeRun() {
+		int length = memberRef(11, "java/lang/CharSequence", "length", "()I");
+		int charAt = memberRef(11, "java/lang/CharSequence", "charAt", "(I)C");
+		int table = memberRef(9, SUPER_NAME, "symbolIndex", "[I");
+		int n = dfa.numStates();
+		int k = dfa.getSymbols().length;
+
+		int loop = newLabel();
+		int end = newLabel();
+		int accept = newLabel();
+		int reject = newLabel();
+		int[] stateLabels = new int[n];
+		int[] toLabels = new int[n];
+		for (int s = 0; s < n; s++) {
+			stateLabels[s] = newLabel();
+			toLabels[s] = newLabel();
+		}
+
+		aload(INPUT);
+		code.u1(0xB9); // invokeinterface
+		code.u2(length);
+		code.u1(1);
+		code.u1(0);
+		istore(LENGTH);
+		push(0);
+		istore(INDEX);
+		push(0);
+		istore(SYMBOL);
+		push(dfa.getStartState());
+		istore(STATE);
+		aload(0);
+		code.u1(0xB4); // getfield
+		code.u2(table);
+		astore(TABLE);
+
+		mark(loop);
+		iload(INDEX);
+		iload(LENGTH);
+		branch(0xA2, end); // if_icmpge
+		aload(INPUT);
+		iload(INDEX);
+		code.u1(0xB9); // invokeinterface
+		code.u2(charAt);
+		code.u1(2);
+		code.u1(0);
+		istore(SYMBOL);
+		code.u1(0x84); // iinc
+		code.u1(INDEX);
+		code.u1(1);
+		iload(SYMBOL);
+		aload(TABLE);
+		code.u1(0xBE); // arraylength
+		branch(0xA2, reject); // if_icmpge
+		aload(TABLE);
+		iload(SYMBOL);
+		code.u1(0x2E); // iaload
+		code.u1(0x59); // dup
+		istore(SYMBOL);
+		branch(0x9B, reject); // iflt
+		iload(STATE);
+		int[] dispatch = new int[n];
+		for (int s = 0; s < n; s++) {
+			dispatch[s] = dfa.isDead(s) ? reject : stateLabels[s];
+		}
+		tableSwitch(0, dispatch, reject);
+
+		boolean[] targeted = new boolean[n];
+		for (int s = 0; s < n; s++) {
+			if (dfa.isDead(s)) {
+				continue;
+			}
+			mark(stateLabels[s]);
+			int[] targets = new int[k];
+			for (int i = 0; i < k; i++) {
+				int to = dfa.next(s, i);
+				if (to >= 0 && !dfa.isDead(to)) {
+					targets[i] = toLabels[to];
+					targeted[to] = true;
+				} else {
+					targets[i] = reject;
+				}
+			}
+			symbolTests(targets);
+		}
+
+		for (int t = 0; t < n; t++) {
+			if (targeted[t]) {
+				mark(toLabels[t]);
+				push(t);
+				istore(STATE);
+				branch(0xA7, loop); // goto, backwards
+			}
+		}
+
+		mark(end);
+		iload(STATE);
+		int[] finals = new int[n];
+		for (int s = 0; s < n; s++) {
+			finals[s] = dfa.isFinal(s) ? accept : reject;
+		}
+		tableSwitch(0, finals, reject);
+
+		mark(accept);
+		code.u1(0x04); // iconst_1
+		code.u1(0xAC); // ireturn
+		mark(reject);
+		code.u1(0x03); // iconst_0
+		code.u1(0xAC); // ireturn
+
+		if (code.size() > MAX_CODE) {
+			throw new IllegalArgumentException("DFA with " + n + " states is too large to compile");
+		}
+		for (int[] f : fixups) {
+			int offset = labels.get(f[2]) - f[1];
+			if (f[3] == 2) {
+				code.set2(f[0], offset);
+			} else {
+				code.set4(f[0], offset);
+			}
+		}
+	}
+
+	/**
+	 * Writes the branch of a state block on the symbol column, given the
+	 * label each column leads to. The most common label is the fall through,
+	 * and each run of consecutive columns with another label is tested with
+	 * one or two compares, or, if there are more than MAX_TESTS such runs,
+	 * the block switches on the column.
+	 */
+	private void symbolTests(int[] targets) {
+		Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+		int common = targets[0];
+		for (int label : targets) {
+			int c = counts.merge(label, 1, Integer::sum);
+			if (c > counts.get(common)) {
+				common = label;
+			}
+		}
+		List<int[]> runs = new ArrayList<int[]>(); // {first column, last column, label}
+		for (int i = 0; i < targets.length; i++) {
+			if (targets[i] == common) {
+				continue;
+			}
+			int[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+			if (last != null && last[1] == i - 1 && last[2] == targets[i]) {
+				last[1] = i;
+			} else {
+				runs.add(new int[] { i, i, targets[i] });
+			}
+		}
+		if (runs.size() > MAX_TESTS) {
+			iload(SYMBOL);
+			tableSwitch(0, targets, common);
+			return;
+		}
+		for (int[] run : runs) {
+			iload(SYMBOL);
+			if (run[0] == run[1]) {
+				push(run[0]);
+				branch(0x9F, run[2]); // if_icmpeq
+				continue;
+			}
+			int skip = newLabel();
+			push(run[0]);
+			branch(0xA1, skip); // if_icmplt
+			iload(SYMBOL);
+			push(run[1]);
+			branch(0xA4, run[2]); // if_icmple
+			mark(skip);
+		}
+		branch(0xA7, common); // goto
+	}
+
+	/**
+	 * One full frame per branch target: locals (this, CharSequence, four
+	 * ints and int[]) and an empty stack.
+	 */
+	private Bytes stackMapTable(int thisClass, int inputClass, int tableClass) {
+		int[] targets = new int[labels.size()];
+		int count = 0;
+		for (int pc : labels) {
+			// labels of dead states and of states nothing jumps to are unused
+			if (pc >= 0) {
+				targets[count++] = pc;
+			}
+		}
+		targets = Arrays.copyOf(targets, count);
+		Arrays.sort(targets);
+		Bytes frames = new Bytes();
+		count = 0;
+		int last = -1;
+		for (int pc : targets) {
+			if (pc == last) {
+				continue;
+			}
+			frames.u1(255);
+			frames.u2(last < 0 ? pc : pc - last - 1);
+			frames.u2(7);
+			frames.u1(7);
+			frames.u2(thisClass);
+			frames.u1(7);
+			frames.u2(inputClass);
+			frames.u1(1);
+			frames.u1(1);
+			frames.u1(1);
+			frames.u1(1);
+			frames.u1(7);
+			frames.u2(tableClass);
+			frames.u2(0);
+			last = pc;
+			count++;
+		}
+		Bytes ret = new Bytes();
+		ret.u2(count);
+		ret.bytes(frames);
+		return ret;
+	}
+
+	private int newLabel() {
+		labels.add(-1);
+		return labels.size() - 1;
+	}
+
+	private void mark(int label) {
+		labels.set(label, code.size());
+	}
+
+	private void branch(int opcode, int label) {
+		int at = code.size();
+		code.u1(opcode);
+		fixups.add(new int[] { code.size(), at, label, 2 });
+		code.u2(0);
+	}
+
+	/**
+	 * Pads the code after a switch opcode to a multiple of 4 bytes.
+	 */
+	private void align() {
+		while (code.size() % 4 != 0) {
+			code.u1(0);
+		}
+	}
+
+	private void tableSwitch(int low, int[] targets, int dflt) {
+		int at = code.size();
+		code.u1(0xAA); // tableswitch
+		align();
+		switchTarget(at, dflt);
+		code.u4(low);
+		code.u4(low + targets.length - 1);
+		for (int label : targets) {
+			switchTarget(at, label);
+		}
+	}
+
+	private void switchTarget(int at, int label) {
+		fixups.add(new int[] { code.size(), at, label, 4 });
+		code.u4(0);
+	}
+
+	private void push(int v) {
+		if (v >= -1 && v <= 5) {
+			code.u1(0x03 + v); // iconst_<v>
+		} else if (v == (byte) v) {
+			code.u1(0x10); // bipush
+			code.u1(v);
+		} else if (v == (short) v) {
+			code.u1(0x11); // sipush
+			code.u2(v);
+		} else {
+			code.u1(0x13); // ldc_w
+			code.u2(intConst(v));
+		}
+	}
+
+	private void astore(int slot) {
+		code.u1(0x3A);
+		code.u1(slot);
+	}
+
+	private void aload(int slot) {
+		code.u1(0x19);
+		code.u1(slot);
+	}
+
+	private void iload(int slot) {
+		code.u1(0x15);
+		code.u1(slot);
+	}
+
+	private void istore(int slot) {
+		code.u1(0x36);
+		code.u1(slot);
+	}
+
+	private int utf8(String s) {
+		Integer idx = poolIndex.get("U" + s);
+		if (idx == null) {
+			pool.u1(1);
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			pool.u2(b.length);
+			pool.raw(b);
+			idx = poolCount++;
+			poolIndex.put("U" + s, idx);
+		}
+		return idx;
+	}
+
+	private int classRef(String name) {
+		Integer idx = poolIndex.get("C" + name);
+		if (idx == null) {
+			int n = utf8(name);
+			pool.u1(7);
+			pool.u2(n);
+			idx = poolCount++;
+			poolIndex.put("C" + name, idx);
+		}
+		return idx;
+	}
+
+	private int memberRef(int tag, String owner, String name, String desc) {
+		String key = "M" + owner + "." + name + desc;
+		Integer idx = poolIndex.get(key);
+		if (idx == null) {
+			int c = classRef(owner);
+			int n = utf8(name);
+			int d = utf8(desc);
+			pool.u1(12);
+			pool.u2(n);
+			pool.u2(d);
+			int nat = poolCount++;
+			pool.u1(tag);
+			pool.u2(c);
+			pool.u2(nat);
+			idx = poolCount++;
+			poolIndex.put(key, idx);
+		}
+		return idx;
+	}
+
+	private int intConst(int v) {
+		Integer idx = poolIndex.get("I" + v);
+		if (idx == null) {
+			pool.u1(3);
+			pool.u4(v);
+			idx = poolCount++;
+			poolIndex.put("I" + v, idx);
+		}
+		return idx;
+	}
+
+	/**
+	 * Growable big endian byte buffer.
+	 */
+	private static class Bytes {
+		private byte[] buf = new byte[256];
+		private int size;
+
+		int size() {
+			return size;
+		}
+
+		void u1(int v) {
+			if (size == buf.length) {
+				buf = Arrays.copyOf(buf, size * 2);
+			}
+			buf[size++] = (byte) v;
+		}
+
+		void u2(int v) {
+			u1(v >>> 8);
+			u1(v);
+		}
+
+		void u4(int v) {
+			u2(v >>> 16);
+			u2(v);
+		}
+
+		void raw(byte[] b) {
+			for (byte x : b) {
+				u1(x);
+			}
+		}
+
+		void bytes(Bytes b) {
+			for (int i = 0; i < b.size; i++) {
+				u1(b.buf[i]);
+			}
+		}
+
+		void set2(int at, int v) {
+			buf[at] = (byte) (v >>> 8);
+			buf[at + 1] = (byte) v;
+		}
+
+		void set4(int at, int v) {
+			set2(at, v >>> 16);
+			set2(at + 2, v);
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buf, size);
+		}
+	}
+}
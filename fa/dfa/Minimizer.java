@@ -0,0 +1,421 @@
+package fa.dfa;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Minimization of compiled DFAs. Both engines first trim the DFA, so only
+ * reachable, live states take part, and a missing transition stands for
+ * the rejecting sink. The result is canonical: its states are numbered in
+ * breadth first order from the start state, following the symbols in column
+ * order, and it has no dead states apart from a dead start state. Two DFAs
+ * for the same language over the same alphabet therefore minimize to
+ * identical tables, whichever engine is used.
+ *
+ * minimize() is Hopcroft's algorithm on one thread. minimizeParallel()
+ * runs Moore rounds: in every round each state gets the signature of its
+ * class and the classes of its successors, and the states are regrouped by
+ * signature. Hashing, grouping and relabeling all run as fork-join tasks
+ * over the state array, and the rounds stop when no class splits.
+ */
+public class Minimizer {
+	private static final int GRAIN = 1 << 14;
+
+	private Minimizer() {
+	}
+
+	/**
+	 * Minimizes a DFA with Hopcroft's algorithm
+	 * @param dfa the DFA to minimize
+	 * @return the canonical minimal DFA
+	 */
+	public static CompiledDFA minimize(CompiledDFA dfa) {
+		CompiledDFA t = dfa.trim();
+		int n = t.numStates();
+		int k = t.getSymbols().length;
+		// complete the DFA with an explicit sink, state n, if it is partial
+		boolean partial = false;
+		for (int s = 0; s < n && !partial; s++) {
+			for (int sym = 0; sym < k; sym++) {
+				if (t.next(s, sym) < 0) {
+					partial = true;
+					break;
+				}
+			}
+		}
+		int total = partial ? n + 1 : n;
+		int[] delta = new int[total * k];
+		for (int s = 0; s < total; s++) {
+			for (int sym = 0; sym < k; sym++) {
+				int to = s < n ? t.next(s, sym) : n;
+				delta[s * k + sym] = to < 0 ? n : to;
+			}
+		}
+		// inverse transitions: inv[invStart[t * k + sym] ..] are the states
+		// that go to t on sym
+		int[] invStart = new int[total * k + 1];
+		for (int s = 0; s < total; s++) {
+			for (int sym = 0; sym < k; sym++) {
+				invStart[delta[s * k + sym] * k + sym + 1]++;
+			}
+		}
+		for (int i = 0; i < total * k; i++) {
+			invStart[i + 1] += invStart[i];
+		}
+		int[] fill = Arrays.copyOf(invStart, total * k);
+		int[] inv = new int[total * k];
+		for (int s = 0; s < total; s++) {
+			for (int sym = 0; sym < k; sym++) {
+				inv[fill[delta[s * k + sym] * k + sym]++] = s;
+			}
+		}
+
+		// the partition: block b is elems[blockStart[b], blockEnd[b])
+		int[] elems = new int[total];
+		int[] where = new int[total];
+		int[] blockOf = new int[total];
+		int[] blockStart = new int[total];
+		int[] blockEnd = new int[total];
+		int[] marked = new int[total];
+		int blocks = 0;
+		int pos = 0;
+		for (int pass = 0; pass < 2; pass++) {
+			int first = pos;
+			for (int s = 0; s < total; s++) {
+				if ((s < n && t.isFinal(s)) == (pass == 0)) {
+					elems[pos] = s;
+					where[s] = pos++;
+					blockOf[s] = blocks;
+				}
+			}
+			if (pos > first) {
+				blockStart[blocks] = first;
+				blockEnd[blocks++] = pos;
+			}
+		}
+
+		// the splitters still to process, as block * k + sym
+		int[] work = new int[total * k];
+		boolean[] inWork = new boolean[total * k];
+		int workSize = 0;
+		int smaller = blocks < 2 || blockEnd[0] - blockStart[0] <= blockEnd[1] - blockStart[1] ? 0 : 1;
+		for (int sym = 0; sym < k && blocks > 0; sym++) {
+			work[workSize++] = smaller * k + sym;
+			inWork[smaller * k + sym] = true;
+		}
+		int[] splitter = new int[total];
+		int[] touched = new int[total];
+		while (workSize > 0) {
+			int w = work[--workSize];
+			inWork[w] = false;
+			int a = w / k;
+			int sym = w % k;
+			// copy the splitter, since marking moves states inside blocks
+			int size = 0;
+			for (int i = blockStart[a]; i < blockEnd[a]; i++) {
+				splitter[size++] = elems[i];
+			}
+			int numTouched = 0;
+			for (int i = 0; i < size; i++) {
+				int target = splitter[i] * k + sym;
+				for (int j = invStart[target]; j < invStart[target + 1]; j++) {
+					int s = inv[j];
+					int b = blockOf[s];
+					int m = blockStart[b] + marked[b];
+					if (where[s] < m) {
+						continue; // marked already
+					}
+					if (marked[b] == 0) {
+						touched[numTouched++] = b;
+					}
+					// swap s to the end of the marked prefix of its block
+					int other = elems[m];
+					elems[m] = s;
+					elems[where[s]] = other;
+					where[other] = where[s];
+					where[s] = m;
+					marked[b]++;
+				}
+			}
+			for (int i = 0; i < numTouched; i++) {
+				int b = touched[i];
+				int m = marked[b];
+				marked[b] = 0;
+				if (m == blockEnd[b] - blockStart[b]) {
+					continue;
+				}
+				// the marked prefix becomes a new block
+				int nb = blocks++;
+				blockStart[nb] = blockStart[b];
+				blockEnd[nb] = blockStart[b] + m;
+				blockStart[b] += m;
+				for (int j = blockStart[nb]; j < blockEnd[nb]; j++) {
+					blockOf[elems[j]] = nb;
+				}
+				boolean newSmaller = m <= blockEnd[b] - blockStart[b];
+				for (int c = 0; c < k; c++) {
+					int add = inWork[b * k + c] || newSmaller ? nb * k + c : b * k + c;
+					if (!inWork[add]) {
+						inWork[add] = true;
+						work[workSize++] = add;
+					}
+				}
+			}
+		}
+		return quotient(t, blockOf, partial ? blockOf[n] : -1);
+	}
+
+	/**
+	 * Minimizes a DFA with parallel Moore rounds on the common pool
+	 * @param dfa the DFA to minimize
+	 * @return the canonical minimal DFA, the same as minimize(dfa)
+	 */
+	public static CompiledDFA minimizeParallel(CompiledDFA dfa) {
+		return minimizeParallel(dfa, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Minimizes a DFA with parallel Moore rounds
+	 * @param dfa the DFA to minimize
+	 * @param pool the pool that runs the rounds
+	 * @return the canonical minimal DFA, the same as minimize(dfa)
+	 */
+	public static CompiledDFA minimizeParallel(CompiledDFA dfa, ForkJoinPool pool) {
+		CompiledDFA t = dfa.trim();
+		int n = t.numStates();
+		int k = t.getSymbols().length;
+		int shards = Math.max(1, pool.getParallelism());
+		int[] cls = new int[n];
+		int[] next = new int[n];
+		int[] hash = new int[n];
+		int[] leader = new int[n];
+		// the states of shard i are byShard[shardStart[i], shardStart[i + 1]),
+		// and offset[b * shards + i] is where block b puts its states of shard i
+		int blocks = (n + GRAIN - 1) / GRAIN;
+		int[] offset = new int[blocks * shards];
+		int[] shardStart = new int[shards + 1];
+		int[] byShard = new int[n];
+		int classes = 0;
+		boolean[] seen = new boolean[2];
+		for (int s = 0; s < n; s++) {
+			cls[s] = t.isFinal(s) ? 1 : 0;
+			if (!seen[cls[s]]) {
+				seen[cls[s]] = true;
+				classes++;
+			}
+		}
+		while (true) {
+			int[] c = cls;
+			pool.invoke(new Range(0, n, GRAIN, (lo, hi) -> {
+				for (int s = lo; s < hi; s++) {
+					hash[s] = signatureHash(t, k, c, s);
+				}
+			}));
+			// bucket the states by the shard their hash falls into: count per
+			// block, lay the buckets out shard by shard, then scatter, so every
+			// bucket lists its states in increasing order
+			pool.invoke(new Range(0, blocks, 1, (lo, hi) -> {
+				for (int b = lo; b < hi; b++) {
+					Arrays.fill(offset, b * shards, (b + 1) * shards, 0);
+					for (int s = b * GRAIN; s < Math.min(n, (b + 1) * GRAIN); s++) {
+						offset[b * shards + shardOf(hash[s], shards)]++;
+					}
+				}
+			}));
+			int sum = 0;
+			for (int shard = 0; shard < shards; shard++) {
+				shardStart[shard] = sum;
+				for (int b = 0; b < blocks; b++) {
+					int size = offset[b * shards + shard];
+					offset[b * shards + shard] = sum;
+					sum += size;
+				}
+			}
+			shardStart[shards] = sum;
+			pool.invoke(new Range(0, blocks, 1, (lo, hi) -> {
+				for (int b = lo; b < hi; b++) {
+					for (int s = b * GRAIN; s < Math.min(n, (b + 1) * GRAIN); s++) {
+						byShard[offset[b * shards + shardOf(hash[s], shards)]++] = s;
+					}
+				}
+			}));
+			// every shard groups its own bucket, so each state's leader is the
+			// first state with the same signature
+			pool.invoke(new Range(0, shards, 1, (lo, hi) -> {
+				for (int shard = lo; shard < hi; shard++) {
+					group(t, k, c, hash, leader, byShard, shardStart[shard], shardStart[shard + 1]);
+				}
+			}));
+			int count = 0;
+			for (int s = 0; s < n; s++) {
+				if (leader[s] == s) {
+					next[s] = count++;
+				}
+			}
+			int[] nc = next;
+			pool.invoke(new Range(0, n, GRAIN, (lo, hi) -> {
+				for (int s = lo; s < hi; s++) {
+					nc[s] = nc[leader[s]];
+				}
+			}));
+			next = cls;
+			cls = nc;
+			if (count == classes) {
+				break;
+			}
+			classes = count;
+		}
+		return quotient(t, cls, -1);
+	}
+
+	/**
+	 * Hashes the class of s and the classes of its successors, where a
+	 * missing transition counts as class -1.
+	 */
+	private static int signatureHash(CompiledDFA t, int k, int[] cls, int s) {
+		int h = cls[s];
+		for (int sym = 0; sym < k; sym++) {
+			int to = t.next(s, sym);
+			h = h * 0x01000193 ^ (to < 0 ? -1 : cls[to]);
+		}
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		return h ^ (h >>> 13);
+	}
+
+	/**
+	 * Maps a hash to a shard by multiplying instead of dividing. It uses the
+	 * high bits of the hash, and group() the bits below them.
+	 */
+	private static int shardOf(int hash, int shards) {
+		return (int) (((hash & 0xFFFFFFFFL) * shards) >>> 32);
+	}
+
+	private static boolean sameSignature(CompiledDFA t, int k, int[] cls, int a, int b) {
+		if (cls[a] != cls[b]) {
+			return false;
+		}
+		for (int sym = 0; sym < k; sym++) {
+			int x = t.next(a, sym);
+			int y = t.next(b, sym);
+			if ((x < 0 ? -1 : cls[x]) != (y < 0 ? -1 : cls[y])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sets leader[s] for the states of one shard, states[from, to), with an
+	 * open addressing table from signatures to the first state that has
+	 * them. The table is sized for the whole shard, so it never fills up.
+	 */
+	private static void group(CompiledDFA t, int k, int[] cls, int[] hash, int[] leader, int[] states, int from,
+			int to) {
+		int size = 16;
+		while (size < 2 * (to - from)) {
+			size <<= 1;
+		}
+		int[] table = new int[size];
+		Arrays.fill(table, -1);
+		int mask = size - 1;
+		for (int i = from; i < to; i++) {
+			int s = states[i];
+			int slot = (hash[s] >>> 7) & mask;
+			while (table[slot] >= 0 && (hash[table[slot]] != hash[s] || !sameSignature(t, k, cls, table[slot], s))) {
+				slot = (slot + 1) & mask;
+			}
+			if (table[slot] >= 0) {
+				leader[s] = table[slot];
+			} else {
+				leader[s] = s;
+				table[slot] = s;
+			}
+		}
+	}
+
+	/**
+	 * Builds the quotient of a trimmed DFA by a partition into classes, with
+	 * the classes numbered in breadth first order from the start class.
+	 * Transitions into the sink class become missing transitions.
+	 */
+	private static CompiledDFA quotient(CompiledDFA t, int[] cls, int sinkClass) {
+		int n = t.numStates();
+		int k = t.getSymbols().length;
+		if (t.isDead(t.getStartState())) {
+			// the language is empty and trim() kept only the start state
+			sinkClass = cls[t.getStartState()];
+		}
+		int classes = 0;
+		for (int s = 0; s < n; s++) {
+			classes = Math.max(classes, cls[s] + 1);
+		}
+		int[] rep = new int[classes];
+		Arrays.fill(rep, -1);
+		for (int s = 0; s < n; s++) {
+			if (rep[cls[s]] < 0) {
+				rep[cls[s]] = s;
+			}
+		}
+		int[] newId = new int[classes];
+		Arrays.fill(newId, -1);
+		int[] order = new int[classes];
+		int count = 0;
+		newId[cls[t.getStartState()]] = count;
+		order[count++] = cls[t.getStartState()];
+		for (int head = 0; head < count; head++) {
+			int s = rep[order[head]];
+			for (int sym = 0; sym < k; sym++) {
+				int to = t.next(s, sym);
+				if (to >= 0 && cls[to] != sinkClass && newId[cls[to]] < 0) {
+					newId[cls[to]] = count;
+					order[count++] = cls[to];
+				}
+			}
+		}
+		int[] delta = new int[count * k];
+		boolean[] finals = new boolean[count];
+		for (int i = 0; i < count; i++) {
+			int s = rep[order[i]];
+			finals[i] = t.isFinal(s);
+			for (int sym = 0; sym < k; sym++) {
+				int to = t.next(s, sym);
+				delta[i * k + sym] = to < 0 || cls[to] == sinkClass ? -1 : newId[cls[to]];
+			}
+		}
+		return new CompiledDFA(count, 0, t.getSymbols(), delta, finals);
+	}
+
+	private interface RangeBody {
+		void run(int lo, int hi);
+	}
+
+	/**
+	 * Runs a body over [lo, hi) split into pieces of at most grain indices.
+	 */
+	private static class Range extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int lo;
+		private final int hi;
+		private final int grain;
+		private final RangeBody body;
+
+		Range(int lo, int hi, int grain, RangeBody body) {
+			this.lo = lo;
+			this.hi = hi;
+			this.grain = grain;
+			this.body = body;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo <= grain) {
+				body.run(lo, hi);
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new Range(lo, mid, grain, body), new Range(mid, hi, grain, body));
+		}
+	}
+}
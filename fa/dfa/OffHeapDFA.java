@@ -0,0 +1,285 @@
+package fa.dfa;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import fa.Matcher;
+
+/**
+ * Compiled DFA whose transition table and final bitmap live outside the
+ * Java heap, either in direct memory or in a memory mapped file, so a huge
+ * table costs the garbage collector nothing. The memory is split into
+ * segments of at most 1 GB so that tables larger than a single buffer
+ * can be addressed.
+ *
+ * The file layout, all little endian, is
+ * <pre>
+ * int magic, int numStates, int numSymbols, int start
+ * char symbols[numSymbols], padded to a multiple of 8 bytes
+ * int delta[numStates * numSymbols], padded to a multiple of 8 bytes
+ * long finals[(numStates + 63) / 64]
+ * </pre>
+ * map() checks the header and that the file is exactly as long as the
+ * header says, but it does not read the table, so a file with a valid
+ * header and corrupt transitions is not detected.
+ *
+ * close() only drops the table: the memory is released when the buffers
+ * are garbage collected, as for any direct or mapped buffer. Freeing it
+ * right away could unmap a table that another thread is still reading,
+ * which crashes the JVM, so close() may safely run alongside matching.
+ */
+public class OffHeapDFA implements Matcher, AutoCloseable {
+	private static final int MAGIC = 0x44464131; // "DFA1"
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+	private static final int HEADER = 16;
+
+	private volatile ByteBuffer[] segments; // null once closed
+	private final int numStates;
+	private final int numSymbols;
+	private final int start;
+	private final char[] symbols;
+	private final int[] symbolIndex;
+	private final long deltaOffset;
+	private final long finalsOffset;
+
+	private OffHeapDFA(ByteBuffer[] segments) {
+		this.segments = segments;
+		numStates = getInt(segments, 4);
+		numSymbols = getInt(segments, 8);
+		start = getInt(segments, 12);
+		symbols = new char[numSymbols];
+		char max = 0;
+		for (int i = 0; i < numSymbols; i++) {
+			symbols[i] = segments[0].getChar(HEADER + 2 * i);
+			max = (char) Math.max(max, symbols[i]);
+		}
+		symbolIndex = new int[numSymbols == 0 ? 0 : max + 1];
+		Arrays.fill(symbolIndex, -1);
+		for (int i = 0; i < numSymbols; i++) {
+			symbolIndex[symbols[i]] = i;
+		}
+		deltaOffset = HEADER + pad(2L * numSymbols);
+		finalsOffset = deltaOffset + pad(4L * numStates * numSymbols);
+	}
+
+	/**
+	 * Copies a compiled DFA into direct memory.
+	 * @param dfa the DFA to copy
+	 * @return the off-heap DFA
+	 */
+	public static OffHeapDFA allocate(CompiledDFA dfa) {
+		long size = sizeOf(dfa);
+		ByteBuffer[] segments = new ByteBuffer[segmentCount(size)];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = ByteBuffer.allocateDirect(segmentSize(size, i)).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		write(dfa, segments);
+		return new OffHeapDFA(segments);
+	}
+
+	/**
+	 * Writes a compiled DFA to a file in the layout map() reads.
+	 * @param dfa the DFA to write
+	 * @param file the file to create or overwrite
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void save(CompiledDFA dfa, Path file) throws IOException {
+		long size = sizeOf(dfa);
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer[] segments = new ByteBuffer[segmentCount(size)];
+			for (int i = 0; i < segments.length; i++) {
+				segments[i] = ch.map(FileChannel.MapMode.READ_WRITE, (long) i << SEGMENT_SHIFT, segmentSize(size, i))
+						.order(ByteOrder.LITTLE_ENDIAN);
+			}
+			write(dfa, segments);
+		}
+	}
+
+	/**
+	 * Maps a table written by save() read-only into memory. The pages are
+	 * loaded by the operating system as they are touched.
+	 * @param file the table file
+	 * @return the off-heap DFA
+	 * @throws IOException if the file cannot be mapped
+	 */
+	public static OffHeapDFA map(Path file) throws IOException {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = ch.size();
+			if (size < HEADER) {
+				throw new IOException(file + " is too short to be a compiled DFA table");
+			}
+			ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining()) {
+				if (ch.read(header, header.position()) < 0) {
+					throw new IOException(file + " is too short to be a compiled DFA table");
+				}
+			}
+			int numStates = header.getInt(4);
+			int numSymbols = header.getInt(8);
+			int start = header.getInt(12);
+			if (header.getInt(0) != MAGIC) {
+				throw new IOException(file + " is not a compiled DFA table");
+			}
+			if (numStates < 1 || numSymbols < 0 || numSymbols > Character.MAX_VALUE + 1 || start < 0
+					|| start >= numStates) {
+				throw new IOException(file + " has an invalid header");
+			}
+			long expected = sizeOf(numStates, numSymbols);
+			if (size != expected) {
+				throw new IOException(file + " is " + size + " bytes long, but its header needs " + expected);
+			}
+			ByteBuffer[] segments = new ByteBuffer[segmentCount(size)];
+			for (int i = 0; i < segments.length; i++) {
+				segments[i] = ch.map(FileChannel.MapMode.READ_ONLY, (long) i << SEGMENT_SHIFT, segmentSize(size, i))
+						.order(ByteOrder.LITTLE_ENDIAN);
+			}
+			return new OffHeapDFA(segments);
+		}
+	}
+
+	/**
+	 * Drops the table, so its memory is released once it is garbage
+	 * collected. Later calls do nothing, and matching that starts afterwards
+	 * throws IllegalStateException; a call to accepts() that is already
+	 * running finishes on the table it started with.
+	 */
+	@Override
+	public void close() {
+		segments = null;
+	}
+
+	private static long pad(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+
+	private static long sizeOf(CompiledDFA dfa) {
+		return sizeOf(dfa.numStates(), dfa.getSymbols().length);
+	}
+
+	private static long sizeOf(long n, long k) {
+		return HEADER + pad(2 * k) + pad(4 * n * k) + 8 * ((n + 63) / 64);
+	}
+
+	private static int segmentCount(long size) {
+		return (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+	}
+
+	private static int segmentSize(long size, int i) {
+		return (int) Math.min(1L << SEGMENT_SHIFT, size - ((long) i << SEGMENT_SHIFT));
+	}
+
+	private static void write(CompiledDFA dfa, ByteBuffer[] segments) {
+		char[] symbols = dfa.getSymbols();
+		int n = dfa.numStates();
+		putInt(segments, 0, MAGIC);
+		putInt(segments, 4, n);
+		putInt(segments, 8, symbols.length);
+		putInt(segments, 12, dfa.getStartState());
+		for (int i = 0; i < symbols.length; i++) {
+			segments[0].putChar(HEADER + 2 * i, symbols[i]);
+		}
+		long delta = HEADER + pad(2L * symbols.length);
+		long finals = delta + pad(4L * n * symbols.length);
+		for (int s = 0; s < n; s++) {
+			for (int i = 0; i < symbols.length; i++) {
+				// transitions into dead states are stored as missing, so the
+				// matcher rejects right away
+				int to = dfa.next(s, i);
+				putInt(segments, delta + 4 * ((long) s * symbols.length + i), to < 0 || dfa.isDead(to) ? -1 : to);
+			}
+		}
+		for (int w = 0; w < (n + 63) / 64; w++) {
+			long bits = 0;
+			for (int b = 0; b < 64 && 64 * w + b < n; b++) {
+				if (dfa.isFinal(64 * w + b)) {
+					bits |= 1L << b;
+				}
+			}
+			putInt(segments, finals + 8L * w, (int) bits);
+			putInt(segments, finals + 8L * w + 4, (int) (bits >>> 32));
+		}
+	}
+
+	private static void putInt(ByteBuffer[] segments, long offset, int value) {
+		segments[(int) (offset >>> SEGMENT_SHIFT)].putInt((int) (offset & SEGMENT_MASK), value);
+	}
+
+	/**
+	 * @return the segments, read once so a caller keeps using the same table
+	 */
+	private ByteBuffer[] table() {
+		ByteBuffer[] segments = this.segments;
+		if (segments == null) {
+			throw new IllegalStateException("The DFA table is closed");
+		}
+		return segments;
+	}
+
+	private int getInt(long offset) {
+		return getInt(table(), offset);
+	}
+
+	/**
+	 * Reads an int. Offsets are multiples of 4 and segments multiples of
+	 * 8 bytes long, so an int never straddles two segments.
+	 */
+	private static int getInt(ByteBuffer[] segments, long offset) {
+		return segments[(int) (offset >>> SEGMENT_SHIFT)].getInt((int) (offset & SEGMENT_MASK));
+	}
+
+	@Override
+	public boolean accepts(CharSequence input) {
+		ByteBuffer[] segments = table();
+		int state = start;
+		if (!Matcher.isEmptyString(input)) {
+			for (int i = 0; i < input.length() && state >= 0; i++) {
+				char c = input.charAt(i);
+				int sym = c < symbolIndex.length ? symbolIndex[c] : -1;
+				state = sym < 0 ? -1 : getInt(segments, deltaOffset + 4 * ((long) state * numSymbols + sym));
+			}
+		}
+		return state >= 0 && isFinal(segments, state);
+	}
+
+	/**
+	 * @return the number of states
+	 */
+	public int numStates() {
+		return numStates;
+	}
+
+	/**
+	 * @return the start state id
+	 */
+	public int getStartState() {
+		return start;
+	}
+
+	/**
+	 * @param state the source state id
+	 * @param sym the column of the symbol
+	 * @return the target state id, or -1 if there is no transition
+	 */
+	public int next(int state, int sym) {
+		return getInt(deltaOffset + 4 * ((long) state * numSymbols + sym));
+	}
+
+	/**
+	 * @param state a state id
+	 * @return true if state is final
+	 */
+	public boolean isFinal(int state) {
+		return isFinal(table(), state);
+	}
+
+	private boolean isFinal(ByteBuffer[] segments, int state) {
+		return (getInt(segments, finalsOffset + 8L * (state >>> 6) + ((state & 32) >>> 3)) & (1 << state)) != 0;
+	}
+}
@@ -0,0 +1,203 @@
+package fa.dfa;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import fa.Matcher;
+
+/**
+ * Speculative parallel matcher for very long inputs. The input is cut
+ * into chunks, and for every chunk the map from each possible start state
+ * to the state it ends in is computed in parallel. The chunk maps are then
+ * composed in a parallel reduction, and the start state is looked up in
+ * the result.
+ *
+ * Computing a full map would cost n times a sequential scan, but runs from
+ * different start states usually converge after a few symbols. Only one run
+ * is kept per distinct current state, so after convergence a chunk costs
+ * about as much as one sequential scan. Runs that enter a dead state are
+ * dropped, so a chunk stops early once every run is dead.
+ */
+public class ParallelMatcher implements Matcher {
+	private static final int DEFAULT_CHUNK = 1 << 20;
+
+	private final CompiledDFA dfa;
+	private final int chunkSize;
+	private final ForkJoinPool pool;
+
+	/**
+	 * Builds a matcher with the default chunk size on the common pool
+	 * @param dfa the DFA to run
+	 */
+	public ParallelMatcher(CompiledDFA dfa) {
+		this(dfa, DEFAULT_CHUNK, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param dfa the DFA to run
+	 * @param chunkSize the number of characters each task scans
+	 * @param pool the pool that runs the chunk tasks
+	 */
+	public ParallelMatcher(CompiledDFA dfa, int chunkSize, ForkJoinPool pool) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must be positive");
+		}
+		this.dfa = dfa;
+		this.chunkSize = chunkSize;
+		this.pool = pool;
+	}
+
+	@Override
+	public boolean accepts(CharSequence input) {
+		if (Matcher.isEmptyString(input)) {
+			return dfa.isFinal(dfa.getStartState());
+		}
+		int chunks = (input.length() + chunkSize - 1) / chunkSize;
+		int state;
+		if (chunks == 1) {
+			state = dfa.run(dfa.getStartState(), input, 0, input.length());
+		} else {
+			int[] map = pool.invoke(new ChunkTask(input, 0, chunks));
+			state = map[dfa.getStartState()];
+		}
+		return state >= 0 && dfa.isFinal(state);
+	}
+
+	/**
+	 * Computes the state map of input[from, to) for every start state.
+	 * Entry s of the result is the state reached from s, or -1 if the chunk
+	 * is rejected from s.
+	 * @param input the input string
+	 * @param from the first index of the chunk
+	 * @param to the index after the chunk
+	 * @return the state map of the chunk
+	 */
+	int[] chunkMap(CharSequence input, int from, int to) {
+		int n = dfa.numStates();
+		// active[j] is the current state of the j-th distinct run, and
+		// owner[s] the run that start state s begins as
+		int[] active = new int[n];
+		int[] owner = new int[n];
+		int live = 0;
+		for (int s = 0; s < n; s++) {
+			if (dfa.isDead(s)) {
+				owner[s] = -1;
+			} else {
+				active[live] = s;
+				owner[s] = live++;
+			}
+		}
+		// every step that merges or drops runs records where each run went,
+		// which costs as much as the step itself rather than O(n); base maps
+		// the initial runs to the runs before merges[0], null for identity
+		int initial = live;
+		int[][] merges = new int[initial][];
+		int numMerges = 0;
+		int stored = 0;
+		int[] base = null;
+		int[] slot = new int[n];
+		int[] merged = new int[n];
+		Arrays.fill(slot, -1);
+		for (int i = from; i < to && live > 0; i++) {
+			int sym = dfa.symbolIndex(input.charAt(i));
+			if (sym < 0) {
+				live = 0;
+				break;
+			}
+			int kept = 0;
+			for (int j = 0; j < live; j++) {
+				int next = dfa.next(active[j], sym);
+				if (next < 0 || dfa.isDead(next)) {
+					merged[j] = -1;
+				} else if (slot[next] < 0) {
+					slot[next] = kept;
+					merged[j] = kept;
+					active[kept++] = next;
+				} else {
+					merged[j] = slot[next];
+				}
+			}
+			for (int j = 0; j < kept; j++) {
+				slot[active[j]] = -1;
+			}
+			if (kept < live) {
+				merges[numMerges++] = Arrays.copyOf(merged, live);
+				stored += live;
+				if (stored > initial) {
+					// fold into base so the records stay O(n) in size
+					base = fold(base, merges, numMerges, null);
+					numMerges = 0;
+					stored = 0;
+				}
+			}
+			live = kept;
+		}
+		int[] map = new int[n];
+		if (live == 0) {
+			Arrays.fill(map, -1);
+			return map;
+		}
+		int[] end = fold(base, merges, numMerges, Arrays.copyOf(active, live));
+		for (int s = 0; s < n; s++) {
+			map[s] = owner[s] < 0 ? -1 : end[owner[s]];
+		}
+		return map;
+	}
+
+	/**
+	 * Composes base, then merges[0..count), then last. The merges are
+	 * composed back to front, so each step costs the size of its own map.
+	 * A null base or last is the identity.
+	 */
+	private static int[] fold(int[] base, int[][] merges, int count, int[] last) {
+		int[] ret = last;
+		for (int m = count - 1; m >= 0; m--) {
+			ret = ret == null ? merges[m] : compose(merges[m], ret);
+		}
+		if (base == null) {
+			return ret;
+		}
+		return ret == null ? base : compose(base, ret);
+	}
+
+	/**
+	 * Composes two state maps, first then second.
+	 */
+	private static int[] compose(int[] first, int[] second) {
+		int[] ret = new int[first.length];
+		for (int s = 0; s < first.length; s++) {
+			ret[s] = first[s] < 0 ? -1 : second[first[s]];
+		}
+		return ret;
+	}
+
+	/**
+	 * Reduces the chunks [lo, hi) to a single state map.
+	 */
+	private class ChunkTask extends RecursiveTask<int[]> {
+		private static final long serialVersionUID = 1L;
+		private final CharSequence input;
+		private final int lo;
+		private final int hi;
+
+		ChunkTask(CharSequence input, int lo, int hi) {
+			this.input = input;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected int[] compute() {
+			if (hi - lo == 1) {
+				int from = lo * chunkSize;
+				return chunkMap(input, from, Math.min(input.length(), from + chunkSize));
+			}
+			int mid = (lo + hi) >>> 1;
+			ChunkTask left = new ChunkTask(input, lo, mid);
+			left.fork();
+			int[] right = new ChunkTask(input, mid, hi).compute();
+			return compose(left.join(), right);
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package fa.dfa;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lazy Boolean combinations of DFAs. A product state is a pair of states,
+ * one of each operand, and it is only made when a run first reaches it, so
+ * checking an input against "A and not B" takes one pass and builds only
+ * the pairs that input visits. Transitions between pairs are cached per
+ * symbol, so later inputs mostly run on the cache.
+ *
+ * A pair from which the result can no longer accept, like a pair with the
+ * rejecting sink of one operand in an intersection, is the rejecting sink
+ * of the product, so runs stop there.
+ *
+ * The operands can be any LazyDFA: a CompiledDFA, an NFA run through
+ * SubsetDFA, or another product. Like the operands that build states on
+ * demand, a product is not thread safe.
+ */
+public class ProductDFA implements LazyDFA {
+	private static final int UNKNOWN = -2;
+
+	private final LazyDFA left;
+	private final LazyDFA right;
+	private final boolean[] table; // result by (left final ? 2 : 0) + (right final ? 1 : 0)
+	private final char[] symbols;
+	private final int[] symbolIndex;
+
+	private final Map<Long, Integer> ids = new HashMap<Long, Integer>();
+	private int[] leftOf = new int[16];
+	private int[] rightOf = new int[16];
+	private boolean[] finals = new boolean[16];
+	private int[] delta; // cached transitions, UNKNOWN until computed
+	private int numStates;
+	private final int start;
+
+	private ProductDFA(LazyDFA left, LazyDFA right, boolean[] table) {
+		this.left = left;
+		this.right = right;
+		this.table = table;
+		char[] a = left.getSymbols();
+		char[] b = right.getSymbols();
+		char[] all = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, all, a.length, b.length);
+		Arrays.sort(all);
+		int k = 0;
+		for (int i = 0; i < all.length; i++) {
+			if (k == 0 || all[i] != all[k - 1]) {
+				all[k++] = all[i];
+			}
+		}
+		symbols = Arrays.copyOf(all, k);
+		symbolIndex = new int[k == 0 ? 0 : symbols[k - 1] + 1];
+		Arrays.fill(symbolIndex, -1);
+		for (int i = 0; i < k; i++) {
+			symbolIndex[symbols[i]] = i;
+		}
+		delta = new int[16 * k];
+		Arrays.fill(delta, UNKNOWN);
+		start = pair(left.getStartState(), right.getStartState());
+	}
+
+	/**
+	 * @param a a DFA
+	 * @param b a DFA
+	 * @return a DFA for the strings both a and b accept
+	 */
+	public static ProductDFA intersection(LazyDFA a, LazyDFA b) {
+		return new ProductDFA(a, b, new boolean[] { false, false, false, true });
+	}
+
+	/**
+	 * @param a a DFA
+	 * @param b a DFA
+	 * @return a DFA for the strings a or b accepts
+	 */
+	public static ProductDFA union(LazyDFA a, LazyDFA b) {
+		return new ProductDFA(a, b, new boolean[] { false, true, true, true });
+	}
+
+	/**
+	 * @param a a DFA
+	 * @param b a DFA
+	 * @return a DFA for the strings a accepts and b does not
+	 */
+	public static ProductDFA difference(LazyDFA a, LazyDFA b) {
+		return new ProductDFA(a, b, new boolean[] { false, false, true, false });
+	}
+
+	/**
+	 * Complements a DFA over all characters. State s of the result is state
+	 * s - 1 of a, so the rejecting sink of a becomes the accepting state 0.
+	 * Since a string with a character outside getSymbols() is accepted,
+	 * materialize() of a complement only agrees with it on strings over
+	 * getSymbols().
+	 * @param a a DFA
+	 * @return a DFA for the strings a does not accept
+	 */
+	public static LazyDFA complement(final LazyDFA a) {
+		return new LazyDFA() {
+			@Override
+			public int getStartState() {
+				return a.getStartState() + 1;
+			}
+
+			@Override
+			public int step(int state, char c) {
+				return state < 0 ? -1 : a.step(state - 1, c) + 1;
+			}
+
+			@Override
+			public boolean isFinal(int state) {
+				return state == 0 || !a.isFinal(state - 1);
+			}
+
+			@Override
+			public char[] getSymbols() {
+				return a.getSymbols();
+			}
+		};
+	}
+
+	/**
+	 * Returns the id of a pair, making the state if it is new, or -1 if the
+	 * result cannot accept from the pair.
+	 */
+	private int pair(int a, int b) {
+		boolean leftFixed = a < 0;
+		boolean rightFixed = b < 0;
+		// with an operand in its sink, only the other operand's finality can
+		// still change the result
+		if (leftFixed && rightFixed && !table[0]) {
+			return -1;
+		}
+		if (leftFixed && !table[0] && !table[1]) {
+			return -1;
+		}
+		if (rightFixed && !table[0] && !table[2]) {
+			return -1;
+		}
+		Long key = ((long) a << 32) | (b & 0xFFFFFFFFL);
+		Integer id = ids.get(key);
+		if (id != null) {
+			return id;
+		}
+		if (numStates == leftOf.length) {
+			int cap = numStates * 2;
+			leftOf = Arrays.copyOf(leftOf, cap);
+			rightOf = Arrays.copyOf(rightOf, cap);
+			finals = Arrays.copyOf(finals, cap);
+			int old = delta.length;
+			delta = Arrays.copyOf(delta, cap * symbols.length);
+			Arrays.fill(delta, old, delta.length, UNKNOWN);
+		}
+		int n = numStates++;
+		leftOf[n] = a;
+		rightOf[n] = b;
+		boolean fa = a >= 0 && left.isFinal(a);
+		boolean fb = b >= 0 && right.isFinal(b);
+		finals[n] = table[(fa ? 2 : 0) + (fb ? 1 : 0)];
+		ids.put(key, n);
+		return n;
+	}
+
+	@Override
+	public int getStartState() {
+		return start;
+	}
+
+	@Override
+	public int step(int state, char c) {
+		if (state < 0) {
+			return -1;
+		}
+		int sym = c < symbolIndex.length ? symbolIndex[c] : -1;
+		if (sym < 0) {
+			// not cached; an operand such as a complement still moves on c
+			return pair(left.step(leftOf[state], c), right.step(rightOf[state], c));
+		}
+		int i = state * symbols.length + sym;
+		if (delta[i] == UNKNOWN) {
+			int to = pair(left.step(leftOf[state], c), right.step(rightOf[state], c));
+			// pair() may have grown delta
+			delta[i] = to;
+		}
+		return delta[i];
+	}
+
+	@Override
+	public boolean isFinal(int state) {
+		return finals[state];
+	}
+
+	@Override
+	public char[] getSymbols() {
+		return symbols.clone();
+	}
+
+	/**
+	 * @return the number of product states built so far
+	 */
+	public int numStates() {
+		return numStates;
+	}
+}
@@ -0,0 +1,199 @@
+package fa.dfa;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Counts and samples the strings of a given length that a DFA accepts.
+ * Row L of the counting table holds, for every state, the number of
+ * strings of length L that lead from it to a final state, and row L is
+ * computed from row L-1 with one pass over the transition table. So
+ * count(n) costs O(n * states * symbols) big integer additions instead of
+ * the symbols^n calls to accepts() of enumerating the strings.
+ *
+ * The rows are kept, so later counts and samples up to the same length
+ * are cheap, at the price of memory for n rows. countMod() needs no rows
+ * and handles lengths far beyond what fits in memory.
+ */
+public class WordCounter {
+	private final CompiledDFA dfa;
+	private final int numSymbols;
+	private final char[] symbols;
+	private final List<BigInteger[]> rows = new ArrayList<BigInteger[]>();
+
+	/**
+	 * @param dfa the DFA whose strings are counted
+	 */
+	public WordCounter(CompiledDFA dfa) {
+		// only states that can be part of an accepted string matter
+		this.dfa = dfa.trim();
+		this.symbols = this.dfa.getSymbols();
+		this.numSymbols = symbols.length;
+		BigInteger[] first = new BigInteger[this.dfa.numStates()];
+		for (int s = 0; s < first.length; s++) {
+			first[s] = this.dfa.isFinal(s) ? BigInteger.ONE : BigInteger.ZERO;
+		}
+		rows.add(first);
+	}
+
+	/**
+	 * Returns row length of the counting table, extending the table as
+	 * needed.
+	 */
+	private BigInteger[] row(int length) {
+		while (rows.size() <= length) {
+			BigInteger[] prev = rows.get(rows.size() - 1);
+			BigInteger[] next = new BigInteger[prev.length];
+			for (int s = 0; s < next.length; s++) {
+				BigInteger sum = BigInteger.ZERO;
+				for (int sym = 0; sym < numSymbols; sym++) {
+					int to = dfa.next(s, sym);
+					if (to >= 0) {
+						sum = sum.add(prev[to]);
+					}
+				}
+				next[s] = sum;
+			}
+			rows.add(next);
+		}
+		return rows.get(length);
+	}
+
+	/**
+	 * Counts the accepted strings of one length
+	 * @param length the string length, 0 for the empty string
+	 * @return the number of accepted strings of that length
+	 */
+	public BigInteger count(int length) {
+		if (length < 0) {
+			throw new IllegalArgumentException("negative length");
+		}
+		return row(length)[dfa.getStartState()];
+	}
+
+	/**
+	 * Counts the accepted strings of one length modulo a number, by raising
+	 * the matrix of transition counts to the given power with repeated
+	 * squaring. This costs O(states^3 * log(length)) and no table rows.
+	 * @param length the string length, 0 for the empty string
+	 * @param modulus the modulus, at least 1
+	 * @return the number of accepted strings of that length, mod modulus
+	 */
+	public long countMod(long length, int modulus) {
+		if (length < 0) {
+			throw new IllegalArgumentException("negative length");
+		}
+		if (modulus < 1) {
+			throw new IllegalArgumentException("modulus must be positive");
+		}
+		int n = dfa.numStates();
+		// m[s][t] is the number of symbols leading from s to t
+		long[][] m = new long[n][n];
+		for (int s = 0; s < n; s++) {
+			for (int sym = 0; sym < numSymbols; sym++) {
+				int to = dfa.next(s, sym);
+				if (to >= 0) {
+					m[s][to] = (m[s][to] + 1) % modulus;
+				}
+			}
+		}
+		// v = m^length * finals, computed as a vector times powers of m
+		long[] v = new long[n];
+		for (int s = 0; s < n; s++) {
+			v[s] = dfa.isFinal(s) ? 1 % modulus : 0;
+		}
+		for (long e = length; e > 0; e >>= 1) {
+			if ((e & 1) != 0) {
+				v = multiply(m, v, modulus);
+			}
+			if (e > 1) {
+				m = multiply(m, m, modulus);
+			}
+		}
+		return v[dfa.getStartState()];
+	}
+
+	private static long[] multiply(long[][] a, long[] v, int modulus) {
+		long[] ret = new long[v.length];
+		for (int i = 0; i < v.length; i++) {
+			long sum = 0;
+			for (int j = 0; j < v.length; j++) {
+				if (a[i][j] != 0) {
+					sum = (sum + a[i][j] * v[j]) % modulus;
+				}
+			}
+			ret[i] = sum;
+		}
+		return ret;
+	}
+
+	private static long[][] multiply(long[][] a, long[][] b, int modulus) {
+		int n = a.length;
+		long[][] ret = new long[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int l = 0; l < n; l++) {
+				long x = a[i][l];
+				if (x == 0) {
+					continue;
+				}
+				for (int j = 0; j < n; j++) {
+					ret[i][j] = (ret[i][j] + x * b[l][j]) % modulus;
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Draws an accepted string of one length uniformly at random. The
+	 * string is built symbol by symbol, and each symbol is drawn with
+	 * probability proportional to the number of accepted completions it
+	 * leaves, so every accepted string is equally likely and no string is
+	 * ever thrown away.
+	 * @param length the string length
+	 * @param random the source of randomness
+	 * @return the string, "e" for the empty string, or null if no string of
+	 * that length is accepted
+	 */
+	public String sample(int length, Random random) {
+		BigInteger total = count(length);
+		if (total.signum() == 0) {
+			return null;
+		}
+		if (length == 0) {
+			return "e";
+		}
+		StringBuilder ret = new StringBuilder(length);
+		int state = dfa.getStartState();
+		BigInteger pick = below(total, random);
+		for (int left = length; left > 0; left--) {
+			BigInteger[] rest = row(left - 1);
+			for (int sym = 0; sym < numSymbols; sym++) {
+				int to = dfa.next(state, sym);
+				if (to < 0) {
+					continue;
+				}
+				if (pick.compareTo(rest[to]) < 0) {
+					ret.append(symbols[sym]);
+					state = to;
+					break;
+				}
+				pick = pick.subtract(rest[to]);
+			}
+		}
+		return ret.toString();
+	}
+
+	/**
+	 * Draws a uniform number in [0, bound).
+	 */
+	private static BigInteger below(BigInteger bound, Random random) {
+		BigInteger r;
+		do {
+			r = new BigInteger(bound.bitLength(), random);
+		} while (r.compareTo(bound) >= 0);
+		return r;
+	}
+}
@@ -0,0 +1,361 @@
+package fa.nfa;
+
+import java.util.Arrays;
+
+/**
+ * Reduced ordered binary decision diagrams over variables 0, 1, 2, ...,
+ * tested in that order. Every node lives in one shared table, so equal
+ * functions are the same node id and equality is ==. The ids 0 and 1 are
+ * the constants FALSE and TRUE. Results of the recursive operations are
+ * kept in a lossy cache shared by all operations.
+ *
+ * Nodes are never freed, so a manager should only live as long as the
+ * analysis that uses it.
+ */
+public class BDD {
+
+    public static final int FALSE = 0;
+    public static final int TRUE = 1;
+
+    private static final int AND = 0;
+    private static final int OR = 1;
+    private static final int DIFF = 2;
+    private static final int REL_PROD = 3;
+    private static final int SHIFT = 4;
+
+    // node n tests variable var[n] and continues with low[n] if it is 0,
+    // high[n] if it is 1
+    private int[] var;
+    private int[] low;
+    private int[] high;
+    private int[] chain; // Next node in the same unique table bucket
+    private int[] buckets;
+    private int size;
+
+    private int[] cacheOp;
+    private int[] cacheA;
+    private int[] cacheB;
+    private int[] cacheC;
+    private int[] cacheResult;
+
+    /**
+     * Constructor, with room for a small diagram.
+     */
+    public BDD() {
+        var = new int[1 << 10];
+        low = new int[var.length];
+        high = new int[var.length];
+        chain = new int[var.length];
+        buckets = new int[var.length];
+        Arrays.fill(buckets, -1);
+        var[FALSE] = Integer.MAX_VALUE;
+        var[TRUE] = Integer.MAX_VALUE;
+        size = 2;
+        newCache(1 << 12);
+    }
+
+    private void newCache(int entries) {
+        cacheOp = new int[entries];
+        cacheA = new int[entries];
+        cacheB = new int[entries];
+        cacheC = new int[entries];
+        cacheResult = new int[entries];
+        Arrays.fill(cacheOp, -1);
+    }
+
+    /**
+     * @return the number of nodes made so far, including the constants
+     */
+    public int numNodes() {
+        return size;
+    }
+
+    /**
+     * @param v: int variable
+     * @return the function that is true when v is 1
+     */
+    public int var(int v) {
+        return mk(v, FALSE, TRUE);
+    }
+
+    /**
+     * @param n: int node
+     * @return the variable n tests, or Integer.MAX_VALUE for a constant
+     */
+    public int varOf(int n) {
+        return var[n];
+    }
+
+    /**
+     * @param n: int node
+     * @return the node for the variable of n being 0
+     */
+    public int low(int n) {
+        return low[n];
+    }
+
+    /**
+     * @param n: int node
+     * @return the node for the variable of n being 1
+     */
+    public int high(int n) {
+        return high[n];
+    }
+
+    /**
+     * Returns the node testing v with the given children, making it if it
+     * does not exist yet. The children must only test variables after v.
+     *
+     * @param v:  int variable
+     * @param lo: int node for v = 0
+     * @param hi: int node for v = 1
+     * @return int node
+     */
+    public int mk(int v, int lo, int hi) {
+        if (lo == hi) {
+            return lo;
+        }
+        int b = hash(v, lo, hi) & (buckets.length - 1);
+        for (int n = buckets[b]; n >= 0; n = chain[n]) {
+            if (var[n] == v && low[n] == lo && high[n] == hi) {
+                return n;
+            }
+        }
+        if (size == var.length) {
+            grow();
+            b = hash(v, lo, hi) & (buckets.length - 1);
+        }
+        int n = size++;
+        var[n] = v;
+        low[n] = lo;
+        high[n] = hi;
+        chain[n] = buckets[b];
+        buckets[b] = n;
+        return n;
+    }
+
+    private void grow() {
+        int cap = var.length * 2;
+        var = Arrays.copyOf(var, cap);
+        low = Arrays.copyOf(low, cap);
+        high = Arrays.copyOf(high, cap);
+        chain = Arrays.copyOf(chain, cap);
+        buckets = new int[cap];
+        Arrays.fill(buckets, -1);
+        for (int n = 2; n < size; n++) {
+            int b = hash(var[n], low[n], high[n]) & (cap - 1);
+            chain[n] = buckets[b];
+            buckets[b] = n;
+        }
+        if (cacheOp.length < cap && cacheOp.length < (1 << 22)) {
+            newCache(cacheOp.length * 2);
+        }
+    }
+
+    private static int hash(int a, int b, int c) {
+        int h = a * 0x9E3779B1 + b;
+        h = h * 0x9E3779B1 + c;
+        return h ^ (h >>> 15);
+    }
+
+    private int cached(int op, int a, int b, int c) {
+        int i = (hash(op * 31 + a, b, c) & 0x7FFFFFFF) % cacheOp.length;
+        if (cacheOp[i] == op && cacheA[i] == a && cacheB[i] == b && cacheC[i] == c) {
+            return cacheResult[i];
+        }
+        return -1;
+    }
+
+    private int cache(int op, int a, int b, int c, int result) {
+        int i = (hash(op * 31 + a, b, c) & 0x7FFFFFFF) % cacheOp.length;
+        cacheOp[i] = op;
+        cacheA[i] = a;
+        cacheB[i] = b;
+        cacheC[i] = c;
+        cacheResult[i] = result;
+        return result;
+    }
+
+    /**
+     * @param a: int node
+     * @param b: int node
+     * @return the node for a and b
+     */
+    public int and(int a, int b) {
+        if (a == FALSE || b == FALSE) {
+            return FALSE;
+        }
+        if (a == TRUE || a == b) {
+            return b;
+        }
+        if (b == TRUE) {
+            return a;
+        }
+        return apply(AND, Math.min(a, b), Math.max(a, b));
+    }
+
+    /**
+     * @param a: int node
+     * @param b: int node
+     * @return the node for a or b
+     */
+    public int or(int a, int b) {
+        if (a == TRUE || b == TRUE) {
+            return TRUE;
+        }
+        if (a == FALSE || a == b) {
+            return b;
+        }
+        if (b == FALSE) {
+            return a;
+        }
+        return apply(OR, Math.min(a, b), Math.max(a, b));
+    }
+
+    /**
+     * @param a: int node
+     * @param b: int node
+     * @return the node for a and not b
+     */
+    public int diff(int a, int b) {
+        if (a == FALSE || b == TRUE || a == b) {
+            return FALSE;
+        }
+        if (b == FALSE) {
+            return a;
+        }
+        return apply(DIFF, a, b);
+    }
+
+    /**
+     * @param a: int node
+     * @return the node for not a
+     */
+    public int not(int a) {
+        return diff(TRUE, a);
+    }
+
+    private int apply(int op, int a, int b) {
+        int r = cached(op, a, b, 0);
+        if (r >= 0) {
+            return r;
+        }
+        int v = Math.min(var[a], var[b]);
+        int a0 = var[a] == v ? low[a] : a;
+        int a1 = var[a] == v ? high[a] : a;
+        int b0 = var[b] == v ? low[b] : b;
+        int b1 = var[b] == v ? high[b] : b;
+        if (op == AND) {
+            r = mk(v, and(a0, b0), and(a1, b1));
+        } else if (op == OR) {
+            r = mk(v, or(a0, b0), or(a1, b1));
+        } else {
+            r = mk(v, diff(a0, b0), diff(a1, b1));
+        }
+        return cache(op, a, b, 0, r);
+    }
+
+    /**
+     * Relational product: the node for (exists vars. a and b), where vars
+     * is given as a cube, the conjunction of the variables to quantify.
+     *
+     * @param a:    int node
+     * @param b:    int node
+     * @param cube: int node, a conjunction of positive variables
+     * @return int node
+     */
+    public int relProd(int a, int b, int cube) {
+        if (a == FALSE || b == FALSE) {
+            return FALSE;
+        }
+        if (a == TRUE && b == TRUE) {
+            return TRUE;
+        }
+        int v = Math.min(var[a], var[b]);
+        while (var[cube] < v) {
+            cube = high[cube];
+        }
+        if (cube == TRUE) {
+            return and(a, b);
+        }
+        if (a > b) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        int r = cached(REL_PROD, a, b, cube);
+        if (r >= 0) {
+            return r;
+        }
+        int a0 = var[a] == v ? low[a] : a;
+        int a1 = var[a] == v ? high[a] : a;
+        int b0 = var[b] == v ? low[b] : b;
+        int b1 = var[b] == v ? high[b] : b;
+        if (var[cube] == v) {
+            int r0 = relProd(a0, b0, high[cube]);
+            r = r0 == TRUE ? TRUE : or(r0, relProd(a1, b1, high[cube]));
+        } else {
+            r = mk(v, relProd(a0, b0, cube), relProd(a1, b1, cube));
+        }
+        return cache(REL_PROD, a, b, cube, r);
+    }
+
+    /**
+     * Renames every variable v of a to v - 1. The variables of a must all
+     * be odd, so the order of the variables stays the same.
+     *
+     * @param a: int node
+     * @return int node
+     */
+    public int shiftDown(int a) {
+        if (a <= TRUE) {
+            return a;
+        }
+        int r = cached(SHIFT, a, 0, 0);
+        if (r >= 0) {
+            return r;
+        }
+        return cache(SHIFT, a, 0, 0, mk(var[a] - 1, shiftDown(low[a]), shiftDown(high[a])));
+    }
+
+    /**
+     * Builds the set of the given keys. Bit levels-1-i of a key, counted
+     * from the least significant bit, is the value of variable
+     * first + i * stride.
+     *
+     * @param keys:   long[] sorted keys without duplicates
+     * @param from:   int first key to use
+     * @param to:     int index after the last key to use
+     * @param levels: int the number of bits per key
+     * @param first:  int the variable of the most significant bit
+     * @param stride: int the distance between the variables of two bits
+     * @return int node
+     */
+    public int fromSorted(long[] keys, int from, int to, int levels, int first, int stride) {
+        return build(keys, from, to, 0, levels, first, stride);
+    }
+
+    private int build(long[] keys, int lo, int hi, int level, int levels, int first, int stride) {
+        if (lo == hi) {
+            return FALSE;
+        }
+        if (level == levels) {
+            return TRUE;
+        }
+        int shift = levels - 1 - level;
+        // first key in [lo, hi) with the bit of this level set
+        int l = lo;
+        int h = hi;
+        while (l < h) {
+            int mid = (l + h) >>> 1;
+            if (((keys[mid] >>> shift) & 1) == 0) {
+                l = mid + 1;
+            } else {
+                h = mid;
+            }
+        }
+        int zero = build(keys, lo, l, level + 1, levels, first, stride);
+        int one = build(keys, l, hi, level + 1, levels, first, stride);
+        return mk(first + level * stride, zero, one);
+    }
+}
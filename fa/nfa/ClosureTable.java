@@ -0,0 +1,245 @@
+package fa.nfa;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Epsilon closures and per-symbol successor sets of every state of an NFA,
+ * precomputed in parallel into flat arrays. Both tables are in compressed
+ * sparse row form: row r is the sorted run data[start[r]..start[r+1]-1].
+ * The closure table has a row per state, and the successor table a row per
+ * symbol class and state, row cls * numStates() + s, holding the closure of
+ * the states reached from the closure of s on the symbol.
+ *
+ * Each table is built in two fork-join passes over chunks of rows. The
+ * first computes every chunk's rows into a buffer of its own and records
+ * the row lengths, and after a prefix sum over the lengths the second
+ * copies the buffers into one array of exactly the right size. Rows are
+ * independent, so no task waits for another.
+ */
+public class ClosureTable {
+
+    private final CompactNFA nfa;
+    private final int numStates;
+    private final ForkJoinPool pool;
+
+    private int[] closureStart;
+    private int[] closure;
+    private int[] successorStart;
+    private int[] successor;
+
+    /**
+     * Builds the tables on the common pool.
+     *
+     * @param nfa: CompactNFA
+     */
+    public ClosureTable(CompactNFA nfa) {
+        this(nfa, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param nfa:  CompactNFA
+     * @param pool: ForkJoinPool that runs the passes
+     */
+    public ClosureTable(CompactNFA nfa, ForkJoinPool pool) {
+        this.nfa = nfa;
+        this.numStates = nfa.numStates();
+        this.pool = pool;
+        int[][] c = build(numStates, false);
+        closureStart = c[0];
+        closure = c[1];
+        int[][] s = build(nfa.getSymbols().length * numStates, true);
+        successorStart = s[0];
+        successor = s[1];
+    }
+
+    /**
+     * @param s: int state
+     * @return the index of the first state of the closure of s
+     */
+    public int closureStart(int s) {
+        return closureStart[s];
+    }
+
+    /**
+     * @param s: int state
+     * @return the index after the last state of the closure of s
+     */
+    public int closureEnd(int s) {
+        return closureStart[s + 1];
+    }
+
+    /**
+     * @param i: int index into the closure table
+     * @return the state at that index
+     */
+    public int closureState(int i) {
+        return closure[i];
+    }
+
+    /**
+     * @param s:   int state
+     * @param cls: int symbol class
+     * @return the index of the first successor of s on the symbol
+     */
+    public int successorStart(int s, int cls) {
+        return successorStart[cls * numStates + s];
+    }
+
+    /**
+     * @param s:   int state
+     * @param cls: int symbol class
+     * @return the index after the last successor of s on the symbol
+     */
+    public int successorEnd(int s, int cls) {
+        return successorStart[cls * numStates + s + 1];
+    }
+
+    /**
+     * @param i: int index into the successor table
+     * @return the state at that index
+     */
+    public int successorState(int i) {
+        return successor[i];
+    }
+
+    /**
+     * Builds one table of numRows rows, returning its start and data arrays.
+     */
+    private int[][] build(int numRows, boolean successors) {
+        int chunks = Math.max(1, Math.min(numRows, pool.getParallelism() * 8));
+        int chunkSize = Math.max(1, (numRows + chunks - 1) / chunks);
+        chunks = Math.max(1, (numRows + chunkSize - 1) / chunkSize);
+        int[] start = new int[numRows + 1];
+        int[][] buffers = new int[chunks][];
+        pool.invoke(new Pass(0, chunks, chunkSize, numRows, successors, start, buffers, null));
+        long total = 0;
+        for (int r = 0; r < numRows; r++) {
+            total += start[r + 1];
+            if (total > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("closure table too large");
+            }
+            start[r + 1] = (int) total;
+        }
+        int[] data = new int[(int) total];
+        pool.invoke(new Pass(0, chunks, chunkSize, numRows, successors, start, buffers, data));
+        return new int[][] { start, data };
+    }
+
+    /**
+     * One pass over the chunks [lo, hi). Without a data array it computes
+     * the rows, and with one it copies the buffers into it.
+     */
+    private class Pass extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int lo;
+        private final int hi;
+        private final int chunkSize;
+        private final int numRows;
+        private final boolean successors;
+        private final int[] start;
+        private final int[][] buffers;
+        private final int[] data;
+
+        Pass(int lo, int hi, int chunkSize, int numRows, boolean successors, int[] start, int[][] buffers,
+                int[] data) {
+            this.lo = lo;
+            this.hi = hi;
+            this.chunkSize = chunkSize;
+            this.numRows = numRows;
+            this.successors = successors;
+            this.start = start;
+            this.buffers = buffers;
+            this.data = data;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Pass(lo, mid, chunkSize, numRows, successors, start, buffers, data),
+                        new Pass(mid, hi, chunkSize, numRows, successors, start, buffers, data));
+                return;
+            }
+            int from = lo * chunkSize;
+            if (data != null) {
+                System.arraycopy(buffers[lo], 0, data, start[from], buffers[lo].length);
+                buffers[lo] = null;
+                return;
+            }
+            int to = Math.min(numRows, from + chunkSize);
+            int[] mark = new int[numStates];
+            int[] stack = successors ? null : new int[numStates];
+            buf = new int[Math.max(16, to - from)];
+            for (int r = from; r < to; r++) {
+                int stamp = r - from + 1;
+                int rowStart = len;
+                if (successors) {
+                    successorRow(r / numStates, r % numStates, mark, stamp);
+                } else {
+                    closureRow(r, mark, stamp, stack);
+                }
+                Arrays.sort(buf, rowStart, len);
+                // Row lengths for now, turned into offsets after the pass
+                start[r + 1] = len - rowStart;
+            }
+            buffers[lo] = Arrays.copyOf(buf, len);
+        }
+
+        private int[] buf; // Rows of this chunk, only used by a leaf
+        private int len;
+
+        private void add(int s) {
+            if (len == buf.length) {
+                buf = Arrays.copyOf(buf, len * 2);
+            }
+            buf[len++] = s;
+        }
+
+        /**
+         * Adds the epsilon closure of s by a depth first search.
+         */
+        private void closureRow(int s, int[] mark, int stamp, int[] stack) {
+            int top = 0;
+            mark[s] = stamp;
+            stack[top++] = s;
+            while (top > 0) {
+                int u = stack[--top];
+                add(u);
+                for (int i = nfa.epsStart(u); i < nfa.epsEnd(u); i++) {
+                    int t = nfa.epsTarget(i);
+                    if (mark[t] != stamp) {
+                        mark[t] = stamp;
+                        stack[top++] = t;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Adds the union of the closures of the states reached on cls from
+         * the closure of s, using the finished closure table.
+         */
+        private void successorRow(int cls, int s, int[] mark, int stamp) {
+            for (int i = closureStart[s]; i < closureStart[s + 1]; i++) {
+                int u = closure[i];
+                int end = nfa.edgeEnd(u);
+                for (int e = nfa.lowerBound(nfa.edgeStart(u), end, cls); e < end && nfa.edgeClass(e) == cls; e++) {
+                    int t = nfa.edgeTarget(e);
+                    if (mark[t] == stamp) {
+                        // The closure of t is already in the row
+                        continue;
+                    }
+                    for (int j = closureStart[t]; j < closureStart[t + 1]; j++) {
+                        int v = closure[j];
+                        if (mark[v] != stamp) {
+                            mark[v] = stamp;
+                            add(v);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,590 @@
+package fa.nfa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import fa.Matcher;
+
+/**
+ * Frozen NFA with its transitions in compressed sparse row form. The
+ * symbol transitions of state s are the entries offsets[s]..offsets[s+1]-1
+ * of the edgeClass and edgeTarget arrays, sorted by symbol class and then
+ * target, without duplicates. Epsilon transitions are kept apart in
+ * epsOffsets and epsTargets the same way.
+ *
+ * A symbol class is the index of the symbol in the sorted alphabet.
+ */
+public class CompactNFA implements Matcher {
+
+    private final int numStates;
+    private final int start;
+    private final boolean[] finals;
+    private final char[] alphabet;
+    private final int[] classOf; // Symbol class by char, -1 if not in the alphabet
+
+    private final int[] offsets;
+    private final char[] edgeClass;
+    private final int[] edgeTarget;
+    private final int[] epsOffsets;
+    private final int[] epsTargets;
+
+    /**
+     * Freezes a dense NFA.
+     *
+     * @param nfa: DenseNFA
+     */
+    public CompactNFA(DenseNFA nfa) {
+        numStates = nfa.numStates();
+        start = nfa.getStart();
+        finals = new boolean[numStates];
+        for (int s = 0; s < numStates; s++) {
+            finals[s] = nfa.isFinal(s);
+        }
+        alphabet = new char[nfa.getABC().size()];
+        int k = 0;
+        for (char c : nfa.getABC()) {
+            alphabet[k++] = c;
+        }
+        Arrays.sort(alphabet);
+        classOf = new int[alphabet.length == 0 ? 0 : alphabet[alphabet.length - 1] + 1];
+        Arrays.fill(classOf, -1);
+        for (int i = 0; i < alphabet.length; i++) {
+            classOf[alphabet[i]] = i;
+        }
+
+        // counting sort of the transitions by source state
+        int m = nfa.numTransitions();
+        int[] symCount = new int[numStates + 1];
+        int[] epsCount = new int[numStates + 1];
+        for (int i = 0; i < m; i++) {
+            if (nfa.getSymbol(i) == 'e') {
+                epsCount[nfa.getFrom(i) + 1]++;
+            } else {
+                symCount[nfa.getFrom(i) + 1]++;
+            }
+        }
+        for (int s = 0; s < numStates; s++) {
+            symCount[s + 1] += symCount[s];
+            epsCount[s + 1] += epsCount[s];
+        }
+        long[] keys = new long[symCount[numStates]];
+        int[] epsRaw = new int[epsCount[numStates]];
+        int[] symFill = Arrays.copyOf(symCount, numStates);
+        int[] epsFill = Arrays.copyOf(epsCount, numStates);
+        for (int i = 0; i < m; i++) {
+            int from = nfa.getFrom(i);
+            if (nfa.getSymbol(i) == 'e') {
+                epsRaw[epsFill[from]++] = nfa.getTo(i);
+            } else {
+                keys[symFill[from]++] = ((long) classOf[nfa.getSymbol(i)] << 32) | nfa.getTo(i);
+            }
+        }
+
+        // sort and deduplicate every row
+        offsets = new int[numStates + 1];
+        epsOffsets = new int[numStates + 1];
+        int symLen = 0;
+        int epsLen = 0;
+        for (int s = 0; s < numStates; s++) {
+            offsets[s] = symLen;
+            Arrays.sort(keys, symCount[s], symCount[s + 1]);
+            for (int i = symCount[s]; i < symCount[s + 1]; i++) {
+                if (i == symCount[s] || keys[i] != keys[i - 1]) {
+                    keys[symLen++] = keys[i];
+                }
+            }
+            epsOffsets[s] = epsLen;
+            Arrays.sort(epsRaw, epsCount[s], epsCount[s + 1]);
+            for (int i = epsCount[s]; i < epsCount[s + 1]; i++) {
+                if (i == epsCount[s] || epsRaw[i] != epsRaw[i - 1]) {
+                    epsRaw[epsLen++] = epsRaw[i];
+                }
+            }
+        }
+        offsets[numStates] = symLen;
+        epsOffsets[numStates] = epsLen;
+        edgeClass = new char[symLen];
+        edgeTarget = new int[symLen];
+        for (int i = 0; i < symLen; i++) {
+            edgeClass[i] = (char) (keys[i] >>> 32);
+            edgeTarget[i] = (int) keys[i];
+        }
+        epsTargets = Arrays.copyOf(epsRaw, epsLen);
+    }
+
+    /**
+     * @return the number of states
+     */
+    public int numStates() {
+        return numStates;
+    }
+
+    /**
+     * @return the start state id, or -1 if there is none
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * @param s: int
+     * @return true if s is final
+     */
+    public boolean isFinal(int s) {
+        return finals[s];
+    }
+
+    /**
+     * @return a copy of the sorted alphabet, indexed by symbol class
+     */
+    public char[] getSymbols() {
+        return alphabet.clone();
+    }
+
+    /**
+     * @param c: char
+     * @return the symbol class of c, or -1 if c is not in the alphabet
+     */
+    public int symbolClass(char c) {
+        return c < classOf.length ? classOf[c] : -1;
+    }
+
+    /**
+     * @param s: int
+     * @return the index of the first symbol transition of s
+     */
+    public int edgeStart(int s) {
+        return offsets[s];
+    }
+
+    /**
+     * @param s: int
+     * @return the index after the last symbol transition of s
+     */
+    public int edgeEnd(int s) {
+        return offsets[s + 1];
+    }
+
+    /**
+     * @param i: the index of a symbol transition
+     * @return its symbol class
+     */
+    public int edgeClass(int i) {
+        return edgeClass[i];
+    }
+
+    /**
+     * @param i: the index of a symbol transition
+     * @return its target state
+     */
+    public int edgeTarget(int i) {
+        return edgeTarget[i];
+    }
+
+    /**
+     * @param s: int
+     * @return the index of the first epsilon transition of s
+     */
+    public int epsStart(int s) {
+        return epsOffsets[s];
+    }
+
+    /**
+     * @param s: int
+     * @return the index after the last epsilon transition of s
+     */
+    public int epsEnd(int s) {
+        return epsOffsets[s + 1];
+    }
+
+    /**
+     * @param i: the index of an epsilon transition
+     * @return its target state
+     */
+    public int epsTarget(int i) {
+        return epsTargets[i];
+    }
+
+    /**
+     * @return the number of symbol transitions
+     */
+    public int numTransitions() {
+        return edgeTarget.length;
+    }
+
+    /**
+     * @return the number of epsilon transitions
+     */
+    public int numEpsilonTransitions() {
+        return epsTargets.length;
+    }
+
+    /**
+     * Extends a set of states with everything reachable on epsilon
+     * transitions. The set is a bitset over the state ids.
+     *
+     * @param set:   long[] bitset, updated in place
+     * @param stack: int[] scratch space of at least numStates() entries
+     */
+    public void eClosure(long[] set, int[] stack) {
+        int top = 0;
+        for (int w = 0; w < set.length; w++) {
+            for (long bits = set[w]; bits != 0; bits &= bits - 1) {
+                stack[top++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        while (top > 0) {
+            int s = stack[--top];
+            for (int i = epsOffsets[s]; i < epsOffsets[s + 1]; i++) {
+                int t = epsTargets[i];
+                if ((set[t >>> 6] & (1L << t)) == 0) {
+                    set[t >>> 6] |= 1L << t;
+                    stack[top++] = t;
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the states reached from a set of states on one symbol class,
+     * without taking the epsilon closure.
+     *
+     * @param from: long[] bitset of source states
+     * @param cls:  int symbol class
+     * @param to:   long[] bitset that receives the targets, cleared first
+     */
+    public void step(long[] from, int cls, long[] to) {
+        Arrays.fill(to, 0);
+        for (int w = 0; w < from.length; w++) {
+            for (long bits = from[w]; bits != 0; bits &= bits - 1) {
+                int s = (w << 6) + Long.numberOfTrailingZeros(bits);
+                int i = lowerBound(offsets[s], offsets[s + 1], cls);
+                for (; i < offsets[s + 1] && edgeClass[i] == cls; i++) {
+                    int t = edgeTarget[i];
+                    to[t >>> 6] |= 1L << t;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the first transition in [lo, hi) whose class is not below cls.
+     */
+    int lowerBound(int lo, int hi, int cls) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (edgeClass[mid] < cls) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @param set: long[] bitset of states
+     * @return true if the set contains a final state
+     */
+    public boolean containsFinal(long[] set) {
+        for (int w = 0; w < set.length; w++) {
+            for (long bits = set[w]; bits != 0; bits &= bits - 1) {
+                if (finals[(w << 6) + Long.numberOfTrailingZeros(bits)]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds the reversed NFA, which accepts the reverse of every string this
+     * one accepts. Every transition is turned around, state s keeps id s, and
+     * a new start state with id numStates() has epsilon transitions to the
+     * old final states. The old start state is the only final state.
+     *
+     * @return CompactNFA
+     */
+    public CompactNFA reverse() {
+        int f = 0;
+        for (boolean b : finals) {
+            if (b) {
+                f++;
+            }
+        }
+        DenseNFA rev = new DenseNFA(numStates + 1, numTransitions() + numEpsilonTransitions() + f);
+        for (int s = 0; s <= numStates; s++) {
+            rev.intern(String.valueOf(s));
+        }
+        rev.setStart(numStates);
+        if (start >= 0) {
+            rev.setFinal(start);
+        }
+        for (int s = 0; s < numStates; s++) {
+            if (finals[s]) {
+                rev.addTransition(numStates, 'e', s);
+            }
+            for (int i = offsets[s]; i < offsets[s + 1]; i++) {
+                rev.addTransition(edgeTarget[i], alphabet[edgeClass[i]], s);
+            }
+            for (int i = epsOffsets[s]; i < epsOffsets[s + 1]; i++) {
+                rev.addTransition(epsTargets[i], 'e', s);
+            }
+        }
+        return rev.freeze();
+    }
+
+    /**
+     * Lists the language of the NFA if it is a finite set of literals. Only
+     * the states that are reachable and can reach a final state count, and
+     * the NFA is taken as a literal set when those states have no cycle.
+     * The strings are found by a depth first walk over the subsets of live
+     * states, so every step of the walk extends a prefix of some accepted
+     * string.
+     *
+     * @param limit: int the most strings to list
+     * @return List of the accepted strings in no particular order, or null if
+     *         the NFA has a cycle or accepts more than limit strings
+     */
+    public List<String> literals(int limit) {
+        List<String> ret = new ArrayList<String>();
+        if (start < 0) {
+            return ret;
+        }
+        boolean[] live = coaccessible();
+        if (!live[start]) {
+            return ret;
+        }
+        if (hasLiveCycle(live)) {
+            return null;
+        }
+        int[] mark = new int[numStates];
+        int[] stack = new int[numStates];
+        int stamp = 1;
+        int[] root = liveClosure(new int[] { start }, 1, live, mark, stamp, stack);
+        if (anyFinal(root)) {
+            ret.add("");
+        }
+        // one frame per prefix character: the sorted (class, target) moves
+        // out of the prefix's subset and the next one to try
+        long[][] moves = new long[16][];
+        int[] next = new int[16];
+        int depth = 0;
+        moves[0] = liveMoves(root, live);
+        StringBuilder prefix = new StringBuilder();
+        int[] seeds = new int[numStates];
+        while (depth >= 0) {
+            long[] mv = moves[depth];
+            int p = next[depth];
+            if (p == mv.length) {
+                depth--;
+                if (depth >= 0) {
+                    prefix.setLength(depth);
+                }
+                continue;
+            }
+            int cls = (int) (mv[p] >>> 32);
+            int count = 0;
+            for (; p < mv.length && (int) (mv[p] >>> 32) == cls; p++) {
+                seeds[count++] = (int) mv[p];
+            }
+            next[depth] = p;
+            int[] set = liveClosure(seeds, count, live, mark, ++stamp, stack);
+            prefix.append(alphabet[cls]);
+            if (anyFinal(set)) {
+                ret.add(prefix.toString());
+                if (ret.size() > limit) {
+                    return null;
+                }
+            }
+            if (++depth == moves.length) {
+                moves = Arrays.copyOf(moves, depth * 2);
+                next = Arrays.copyOf(next, depth * 2);
+            }
+            moves[depth] = liveMoves(set, live);
+            next[depth] = 0;
+        }
+        return ret;
+    }
+
+    /**
+     * Finds the states from which a final state can be reached.
+     */
+    boolean[] coaccessible() {
+        int[] inStart = new int[numStates + 1];
+        for (int t : edgeTarget) {
+            inStart[t + 1]++;
+        }
+        for (int t : epsTargets) {
+            inStart[t + 1]++;
+        }
+        for (int s = 0; s < numStates; s++) {
+            inStart[s + 1] += inStart[s];
+        }
+        int[] fill = Arrays.copyOf(inStart, numStates);
+        int[] preds = new int[inStart[numStates]];
+        for (int s = 0; s < numStates; s++) {
+            for (int i = offsets[s]; i < offsets[s + 1]; i++) {
+                preds[fill[edgeTarget[i]]++] = s;
+            }
+            for (int i = epsOffsets[s]; i < epsOffsets[s + 1]; i++) {
+                preds[fill[epsTargets[i]]++] = s;
+            }
+        }
+        boolean[] ret = new boolean[numStates];
+        int[] queue = new int[numStates];
+        int tail = 0;
+        for (int s = 0; s < numStates; s++) {
+            if (finals[s]) {
+                ret[s] = true;
+                queue[tail++] = s;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int s = queue[head];
+            for (int i = inStart[s]; i < inStart[s + 1]; i++) {
+                if (!ret[preds[i]]) {
+                    ret[preds[i]] = true;
+                    queue[tail++] = preds[i];
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Checks for a cycle among the live states reachable from the start
+     * state, over symbol and epsilon transitions, with an iterative depth
+     * first search.
+     */
+    private boolean hasLiveCycle(boolean[] live) {
+        byte[] color = new byte[numStates]; // 0 new, 1 on the stack, 2 done
+        int[] stack = new int[numStates];
+        int[] cursor = new int[numStates];
+        int top = 0;
+        stack[top++] = start;
+        color[start] = 1;
+        while (top > 0) {
+            int s = stack[top - 1];
+            int symCount = offsets[s + 1] - offsets[s];
+            int c = cursor[s]++;
+            if (c >= symCount + epsOffsets[s + 1] - epsOffsets[s]) {
+                color[s] = 2;
+                top--;
+                continue;
+            }
+            int t = c < symCount ? edgeTarget[offsets[s] + c] : epsTargets[epsOffsets[s] + c - symCount];
+            if (!live[t]) {
+                continue;
+            }
+            if (color[t] == 1) {
+                return true;
+            }
+            if (color[t] == 0) {
+                color[t] = 1;
+                stack[top++] = t;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the sorted live states of the epsilon closure of the seeds.
+     * States already marked with stamp count as visited.
+     */
+    private int[] liveClosure(int[] seeds, int count, boolean[] live, int[] mark, int stamp, int[] stack) {
+        int top = 0;
+        int size = 0;
+        int[] ret = new int[Math.max(count, 4)];
+        for (int i = 0; i < count; i++) {
+            if (live[seeds[i]] && mark[seeds[i]] != stamp) {
+                mark[seeds[i]] = stamp;
+                stack[top++] = seeds[i];
+            }
+        }
+        while (top > 0) {
+            int s = stack[--top];
+            if (size == ret.length) {
+                ret = Arrays.copyOf(ret, size * 2);
+            }
+            ret[size++] = s;
+            for (int i = epsOffsets[s]; i < epsOffsets[s + 1]; i++) {
+                int t = epsTargets[i];
+                if (live[t] && mark[t] != stamp) {
+                    mark[t] = stamp;
+                    stack[top++] = t;
+                }
+            }
+        }
+        ret = Arrays.copyOf(ret, size);
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    /**
+     * Returns the symbol transitions out of a set into live states, as
+     * (class << 32 | target) keys, sorted and without duplicates.
+     */
+    private long[] liveMoves(int[] set, boolean[] live) {
+        int count = 0;
+        for (int s : set) {
+            count += offsets[s + 1] - offsets[s];
+        }
+        long[] keys = new long[count];
+        count = 0;
+        for (int s : set) {
+            for (int i = offsets[s]; i < offsets[s + 1]; i++) {
+                if (live[edgeTarget[i]]) {
+                    keys[count++] = ((long) edgeClass[i] << 32) | edgeTarget[i];
+                }
+            }
+        }
+        Arrays.sort(keys, 0, count);
+        int len = 0;
+        for (int i = 0; i < count; i++) {
+            if (len == 0 || keys[i] != keys[len - 1]) {
+                keys[len++] = keys[i];
+            }
+        }
+        return Arrays.copyOf(keys, len);
+    }
+
+    private boolean anyFinal(int[] set) {
+        for (int s : set) {
+            if (finals[s]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Simulates the NFA on the input, tracking the set of current states.
+     */
+    @Override
+    public boolean accepts(CharSequence input) {
+        if (start < 0) {
+            return false;
+        }
+        long[] cur = new long[(numStates + 63) >>> 6];
+        long[] next = new long[cur.length];
+        int[] stack = new int[numStates];
+        cur[start >>> 6] |= 1L << start;
+        eClosure(cur, stack);
+        if (!Matcher.isEmptyString(input)) {
+            for (int i = 0; i < input.length(); i++) {
+                int cls = symbolClass(input.charAt(i));
+                if (cls < 0) {
+                    return false;
+                }
+                step(cur, cls, next);
+                eClosure(next, stack);
+                long[] tmp = cur;
+                cur = next;
+                next = tmp;
+            }
+        }
+        return containsFinal(cur);
+    }
+}
@@ -0,0 +1,363 @@
+package fa.nfa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import fa.FAInterface;
+import fa.State;
+
+/**
+ * NFA model where states are dense int ids 0..n-1. Names are interned into
+ * ids through a hash table, so every add method costs O(1), and transitions
+ * are kept in parallel primitive arrays (from, symbol, to) that only grow.
+ * Building an automaton with m transitions is therefore linear in m.
+ *
+ * The FAInterface methods work on names as usual. Transitions on 'e' are
+ * epsilon transitions, as in NFA.
+ */
+public class DenseNFA implements FAInterface {
+
+    private HashMap<String, Integer> ids; // Intern table
+    private ArrayList<String> names; // Names by id
+    private boolean[] finals;
+    private int start = -1;
+
+    private int[] edgeFrom;
+    private char[] edgeSymbol;
+    private int[] edgeTo;
+    private int numEdges;
+
+    private LinkedHashSet<Character> alphabet;
+
+    /**
+     * Constructor, sized for a small automaton.
+     */
+    public DenseNFA() {
+        this(16, 16);
+    }
+
+    /**
+     * Constructor that preallocates room for the expected size.
+     *
+     * @param expectedStates:      int
+     * @param expectedTransitions: int
+     */
+    public DenseNFA(int expectedStates, int expectedTransitions) {
+        ids = new HashMap<String, Integer>(Math.max(16, expectedStates * 4 / 3 + 1));
+        names = new ArrayList<String>(expectedStates);
+        finals = new boolean[Math.max(1, expectedStates)];
+        edgeFrom = new int[Math.max(1, expectedTransitions)];
+        edgeSymbol = new char[edgeFrom.length];
+        edgeTo = new int[edgeFrom.length];
+        alphabet = new LinkedHashSet<Character>();
+    }
+
+    /**
+     * Copies an NFA into the dense model.
+     *
+     * @param nfa: NFA
+     * @return DenseNFA
+     */
+    public static DenseNFA of(NFA nfa) {
+        DenseNFA ret = new DenseNFA(nfa.getStates().size(), nfa.getStates().size());
+        for (NFAState s : nfa.getStates()) {
+            int id = ret.intern(s.getName());
+            if (s.isFinal()) {
+                ret.finals[id] = true;
+            }
+        }
+        if (nfa.getStartState() != null) {
+            ret.start = ret.getId(nfa.getStartState().getName());
+        }
+        for (NFAState s : nfa.getStates()) {
+            int from = ret.getId(s.getName());
+            for (Character c : s.getTransitions().keySet()) {
+                for (NFAState to : s.transition(c)) {
+                    ret.addTransition(from, c, ret.getId(to.getName()));
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Builds the equivalent object model NFA.
+     *
+     * @return NFA
+     */
+    public NFA toNFA() {
+        NFA nfa = new NFA();
+        if (start >= 0) {
+            nfa.addStartState(names.get(start));
+        }
+        for (int s = 0; s < names.size(); s++) {
+            if (finals[s]) {
+                nfa.addFinalState(names.get(s));
+            } else {
+                nfa.addState(names.get(s));
+            }
+        }
+        for (int i = 0; i < numEdges; i++) {
+            nfa.addTransition(names.get(edgeFrom[i]), edgeSymbol[i], names.get(edgeTo[i]));
+        }
+        return nfa;
+    }
+
+    /**
+     * Freezes the NFA into its compact transition storage. Later changes to
+     * this NFA do not affect the result.
+     *
+     * @return CompactNFA
+     */
+    public CompactNFA freeze() {
+        return new CompactNFA(this);
+    }
+
+    /**
+     * Returns the id of a state, adding the state if it does not exist yet.
+     *
+     * @param name: String
+     * @return int
+     */
+    public int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        id = names.size();
+        ids.put(name, id);
+        names.add(name);
+        if (id == finals.length) {
+            finals = Arrays.copyOf(finals, id * 2);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of a state.
+     *
+     * @param name: String
+     * @return the id, or -1 if there is no such state
+     */
+    public int getId(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the name of a state.
+     *
+     * @param id: int
+     * @return String
+     */
+    public String getName(int id) {
+        return names.get(id);
+    }
+
+    public void addStartState(String name) {
+        start = intern(name);
+    }
+
+    public void addState(String name) {
+        intern(name);
+    }
+
+    public void addFinalState(String name) {
+        finals[intern(name)] = true;
+    }
+
+    /**
+     * Adds the transition to the NFA's delta data structure. States that do
+     * not exist yet are added.
+     *
+     * @param fromState is the label of the state where the transition starts
+     * @param onSymb    is the symbol from the NFA's alphabet.
+     * @param toState   is the label of the state where the transition ends
+     */
+    public void addTransition(String fromState, char onSymb, String toState) {
+        addTransition(intern(fromState), onSymb, intern(toState));
+    }
+
+    /**
+     * Adds a transition between two state ids.
+     *
+     * @param from:   int
+     * @param onSymb: char
+     * @param to:     int
+     */
+    public void addTransition(int from, char onSymb, int to) {
+        if (numEdges == edgeFrom.length) {
+            int cap = numEdges * 2;
+            edgeFrom = Arrays.copyOf(edgeFrom, cap);
+            edgeSymbol = Arrays.copyOf(edgeSymbol, cap);
+            edgeTo = Arrays.copyOf(edgeTo, cap);
+        }
+        edgeFrom[numEdges] = from;
+        edgeSymbol[numEdges] = onSymb;
+        edgeTo[numEdges] = to;
+        numEdges++;
+        if (onSymb != 'e') {
+            alphabet.add(onSymb);
+        }
+    }
+
+    /**
+     * Marks a state id as final.
+     *
+     * @param id: int
+     */
+    public void setFinal(int id) {
+        finals[id] = true;
+    }
+
+    /**
+     * Makes a state id the start state.
+     *
+     * @param id: int
+     */
+    public void setStart(int id) {
+        start = id;
+    }
+
+    /**
+     * @return the number of states
+     */
+    public int numStates() {
+        return names.size();
+    }
+
+    /**
+     * @return the number of transitions
+     */
+    public int numTransitions() {
+        return numEdges;
+    }
+
+    /**
+     * @return the start state id, or -1 if there is none
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * @param id: int
+     * @return true if the state is final
+     */
+    public boolean isFinal(int id) {
+        return finals[id];
+    }
+
+    /**
+     * @param i: the index of a transition, 0..numTransitions()-1
+     * @return the source state id of transition i
+     */
+    public int getFrom(int i) {
+        return edgeFrom[i];
+    }
+
+    /**
+     * @param i: the index of a transition
+     * @return the symbol of transition i, 'e' for epsilon
+     */
+    public char getSymbol(int i) {
+        return edgeSymbol[i];
+    }
+
+    /**
+     * @param i: the index of a transition
+     * @return the target state id of transition i
+     */
+    public int getTo(int i) {
+        return edgeTo[i];
+    }
+
+    /**
+     * Getter for Q. The states are created on demand, in id order.
+     *
+     * @return a set of states that FA has
+     */
+    public Set<DenseState> getStates() {
+        LinkedHashSet<DenseState> ret = new LinkedHashSet<DenseState>();
+        for (int s = 0; s < names.size(); s++) {
+            ret.add(new DenseState(s));
+        }
+        return ret;
+    }
+
+    /**
+     * Getter for F
+     *
+     * @return a set of final states that FA has
+     */
+    public Set<DenseState> getFinalStates() {
+        LinkedHashSet<DenseState> ret = new LinkedHashSet<DenseState>();
+        for (int s = 0; s < names.size(); s++) {
+            if (finals[s]) {
+                ret.add(new DenseState(s));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Getter for q0
+     *
+     * @return the start state of FA
+     */
+    public DenseState getStartState() {
+        return start < 0 ? null : new DenseState(start);
+    }
+
+    /**
+     * Getter for the alphabet Sigma
+     *
+     * @return the alphabet of FA
+     */
+    public Set<Character> getABC() {
+        return alphabet;
+    }
+
+    /**
+     * View of a state id through the State API.
+     */
+    public class DenseState extends State {
+        private final int id;
+
+        private DenseState(int id) {
+            this.id = id;
+            this.name = names.get(id);
+        }
+
+        /**
+         * @return the id of the state
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * @return true if the state is final
+         */
+        public boolean isFinal() {
+            return finals[id];
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof DenseState && ((DenseState) o).id == id && ((DenseState) o).owner() == owner();
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+
+        private DenseNFA owner() {
+            return DenseNFA.this;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package fa.nfa;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import fa.Matcher;
+
+/**
+ * Matcher for a finite set of strings, stored as a trie in compressed
+ * sparse row form. Nodes are numbered in breadth first order, so the
+ * children of node v are the consecutive nodes firstChild[v] up to
+ * firstChild[v+1]-1, sorted by the label of the edge into them. A node
+ * costs one char, one int and one boolean, and matching a string of length
+ * m takes m binary searches over child labels.
+ *
+ * Since accepts() decides membership of the whole input rather than
+ * searching for occurrences, the trie needs no failure links.
+ */
+public class LiteralMatcher implements Matcher {
+
+    private final char[] label; // Label of the edge into each node
+    private final int[] firstChild;
+    private final boolean[] accept;
+
+    private LiteralMatcher(char[] label, int[] firstChild, boolean[] accept) {
+        this.label = label;
+        this.firstChild = firstChild;
+        this.accept = accept;
+    }
+
+    /**
+     * Builds a matcher for a list of literals. As with accepts(), the literal
+     * "e" stands for the empty string.
+     *
+     * @param literals: Collection of the accepted strings
+     * @return LiteralMatcher
+     */
+    public static LiteralMatcher of(Collection<? extends CharSequence> literals) {
+        String[] words = new String[literals.size()];
+        int n = 0;
+        long chars = 0;
+        for (CharSequence w : literals) {
+            words[n] = Matcher.isEmptyString(w) ? "" : w.toString();
+            chars += words[n++].length();
+        }
+        Arrays.sort(words);
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (distinct == 0 || !words[i].equals(words[distinct - 1])) {
+                words[distinct++] = words[i];
+            }
+        }
+        if (chars + 1 > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("literals too long for a trie");
+        }
+
+        // node v covers words[lo[v], hi[v]), which share their first
+        // depth[v] characters
+        int max = (int) chars + 1;
+        char[] label = new char[max];
+        int[] firstChild = new int[max + 1];
+        boolean[] accept = new boolean[max];
+        int[] lo = new int[max];
+        int[] hi = new int[max];
+        int[] depth = new int[max];
+        hi[0] = distinct;
+        int nodes = 1;
+        for (int v = 0; v < nodes; v++) {
+            firstChild[v] = nodes;
+            int i = lo[v];
+            if (i < hi[v] && words[i].length() == depth[v]) {
+                accept[v] = true;
+                i++;
+            }
+            while (i < hi[v]) {
+                char c = words[i].charAt(depth[v]);
+                int j = i + 1;
+                while (j < hi[v] && words[j].charAt(depth[v]) == c) {
+                    j++;
+                }
+                label[nodes] = c;
+                lo[nodes] = i;
+                hi[nodes] = j;
+                depth[nodes] = depth[v] + 1;
+                nodes++;
+                i = j;
+            }
+        }
+        firstChild[nodes] = nodes;
+        return new LiteralMatcher(Arrays.copyOf(label, nodes), Arrays.copyOf(firstChild, nodes + 1),
+                Arrays.copyOf(accept, nodes));
+    }
+
+    /**
+     * Builds a matcher for an NFA if it accepts a finite set of at most limit
+     * strings.
+     *
+     * @param nfa:   CompactNFA
+     * @param limit: int the most strings to enumerate
+     * @return LiteralMatcher, or null if the NFA is not a small literal set
+     */
+    public static LiteralMatcher of(CompactNFA nfa, int limit) {
+        List<String> literals = nfa.literals(limit);
+        return literals == null ? null : of(literals);
+    }
+
+    /**
+     * @return the number of trie nodes
+     */
+    public int numNodes() {
+        return accept.length;
+    }
+
+    @Override
+    public boolean accepts(CharSequence input) {
+        int v = 0;
+        if (!Matcher.isEmptyString(input)) {
+            for (int i = 0; i < input.length(); i++) {
+                char c = input.charAt(i);
+                int l = firstChild[v];
+                int h = firstChild[v + 1] - 1;
+                v = -1;
+                while (l <= h) {
+                    int mid = (l + h) >>> 1;
+                    if (label[mid] < c) {
+                        l = mid + 1;
+                    } else if (label[mid] > c) {
+                        h = mid - 1;
+                    } else {
+                        v = mid;
+                        break;
+                    }
+                }
+                if (v < 0) {
+                    return false;
+                }
+            }
+        }
+        return accept[v];
+    }
+}
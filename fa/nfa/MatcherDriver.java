@@ -0,0 +1,447 @@
+package fa.nfa;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.StringTokenizer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import fa.Matcher;
+import fa.dfa.BytecodeMatcher;
+import fa.dfa.CompiledDFA;
+import fa.dfa.DFA;
+import fa.dfa.DFAProfile;
+import fa.dfa.Minimizer;
+import fa.dfa.OffHeapDFA;
+import fa.dfa.ParallelMatcher;
+import fa.dfa.ProductDFA;
+import fa.dfa.WordCounter;
+import fa.server.AutomatonRegistry;
+
+/**
+ * Checks the matchers and transformations built from an NFA against
+ * CompactNFA.accepts, which simulates the NFA directly on sets of states.
+ * getDFA() is checked like every other engine, so the DFAs built from it
+ * are compared with the simulation too. For every test file the inputs are
+ * the input strings of the file and every string over the alphabet of at
+ * most LENGTH symbols. Each check prints one line; a check that disagrees
+ * with the simulation prints the first input it got wrong, and the driver
+ * then exits with status 1. tests/matchers.out is what it prints for
+ * tests/*.txt.
+ */
+public class MatcherDriver {
+	private static final int LENGTH = 6;
+
+	private static final ForkJoinPool POOL = new ForkJoinPool(4);
+	private static int failures;
+
+	/**
+	 * @param args - the test files, in either format NFALoader reads
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		List<String> names = new ArrayList<String>();
+		List<CompactNFA> nfas = new ArrayList<CompactNFA>();
+		for (String fileName : args) {
+			File file = new File(fileName);
+			if (file.exists()) {
+				names.add(file.getName());
+				nfas.add(check(file));
+			} else {
+				System.err.println(file + " does not exists - please check the file path");
+				failures++;
+			}
+		}
+		for (int i = 0; i < nfas.size(); i++) {
+			for (int j = i + 1; j < nfas.size(); j++) {
+				if (Arrays.equals(nfas.get(i).getSymbols(), nfas.get(j).getSymbols())) {
+					System.out.println(names.get(i) + " with " + names.get(j));
+					checkPair(nfas.get(i), nfas.get(j));
+				}
+			}
+		}
+		POOL.shutdown();
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Runs every check on one test file.
+	 *
+	 * @param file - the test file
+	 * @return the NFA of the file, frozen
+	 * @throws IOException
+	 */
+	private static CompactNFA check(File file) throws IOException {
+		List<String> inputs = new ArrayList<String>();
+		NFA nfa = read(file, inputs);
+		System.out.println(file.getName());
+		DenseNFA dense = DenseNFA.of(nfa);
+		// the reference every check is compared with
+		CompactNFA compact = dense.freeze();
+		List<Character> symbols = new ArrayList<Character>();
+		for (char c : compact.getSymbols()) {
+			symbols.add(c);
+		}
+		inputs.add("e");
+		addStrings(inputs, symbols, "", LENGTH);
+		Matcher reference = compact;
+
+		DFA dfa = quietly(nfa::getDFA);
+		compare("getDFA", matcher(dfa), reference, inputs);
+		CompiledDFA compiled = dfa.compile();
+		compare("CompiledDFA", compiled, reference, inputs);
+		compare("ParallelMatcher", new ParallelMatcher(compiled, 2, POOL), reference, inputs);
+		// small enough to be generated, so this checks the generated class
+		Matcher generated = BytecodeMatcher.compile(compiled);
+		compare(generated instanceof BytecodeMatcher ? "BytecodeMatcher" : "BytecodeMatcher fallback", generated,
+				reference, inputs);
+		// the profile counts the runs of its own check, which relayout uses
+		DFAProfile profile = new DFAProfile(compiled);
+		compare("DFAProfile", profile, reference, inputs);
+		compare("DFAProfile relayout", profile.relayout(), reference, inputs);
+		try (OffHeapDFA direct = OffHeapDFA.allocate(compiled)) {
+			compare("OffHeapDFA", direct, reference, inputs);
+		}
+		Path table = Files.createTempFile("matchers", ".dfa");
+		try {
+			OffHeapDFA.save(compiled, table);
+			try (OffHeapDFA mapped = OffHeapDFA.map(table)) {
+				compare("OffHeapDFA mapped from a file", mapped, reference, inputs);
+			}
+		} finally {
+			Files.delete(table);
+		}
+
+		// the memoized DFA, after its copy was changed, and after the NFA was
+		DFA copy = quietly(nfa::getDFA);
+		String loop = copy.getStartState().getName();
+		for (char c : symbols) {
+			copy.addTransition(loop, c, loop);
+		}
+		compare("getDFA after changing a copy", matcher(quietly(nfa::getDFA)), reference, inputs);
+		compare("getCompiledDFA", quietly(nfa::getCompiledDFA), reference, inputs);
+		NFA changed = read(file, null);
+		quietly(changed::getCompiledDFA);
+		String start = changed.getStartState().getName();
+		changed.addState("unreachable");
+		for (char c : symbols) {
+			changed.addTransition("unreachable", c, start);
+		}
+		compare("getDFA after an unreachable change", matcher(quietly(changed::getDFA)), reference, inputs);
+		compare("getCompiledDFA after an unreachable change", quietly(changed::getCompiledDFA), reference, inputs);
+
+		compare("DFA.minimize", matcher(quietly(dfa::minimize)), reference, inputs);
+		compare("Minimizer.minimize", Minimizer.minimize(compiled), reference, inputs);
+		compare("Minimizer.minimizeParallel", Minimizer.minimizeParallel(compiled, POOL), reference, inputs);
+
+		report("WordCounter", checkCounts(new WordCounter(compiled), reference, symbols));
+
+		// a fresh copy finds its dead states on first use, here on four threads
+		DFA shared = quietly(nfa::getDFA);
+		Map<String, Boolean> answers = POOL.submit(() -> inputs.parallelStream().distinct()
+				.collect(Collectors.toConcurrentMap(input -> input, shared::accepts))).join();
+		compare("DFA.accepts on four threads", input -> answers.get(input.toString()), reference, inputs);
+		DFA trimmedDFA = quietly(nfa::getDFA);
+		trimmedDFA.trim();
+		compare("DFA.trim", matcher(trimmedDFA), reference, inputs);
+		compare("CompiledDFA.trim", compiled.trim(), reference, inputs);
+		NFA trimmed = read(file, null);
+		trimmed.trim();
+		compare("NFA.trim", matcher(quietly(trimmed::getDFA)), reference, inputs);
+
+		AutomatonRegistry registry = new AutomatonRegistry();
+		Matcher served = quietly(() -> {
+			registry.load("test", file);
+			return registry.get("test");
+		});
+		compare("AutomatonRegistry", served, reference, inputs);
+
+		NFA original = readOriginal(file);
+		if (original != null) {
+			compare("NFADriver's parse", matcher(quietly(original::getDFA)), reference, inputs);
+		}
+
+		compare("DenseNFA round trip", matcher(quietly(dense.toNFA()::getDFA)), reference, inputs);
+		compare("NFA.getMatcher", nfa.getMatcher(), reference, inputs);
+		LiteralMatcher literals = LiteralMatcher.of(compact, 1 << 16);
+		if (literals != null) {
+			compare("LiteralMatcher", literals, reference, inputs);
+		}
+		compare("SymbolicNFA", SymbolicNFA.of(nfa), reference, inputs);
+		SubsetDFA subsets = new SubsetDFA(compact);
+		compare("SubsetDFA", subsets, reference, inputs);
+		compare("SubsetDFA materialized", new SubsetDFA(compact).materialize(), reference, inputs);
+		// combinations that all have the language of the NFA again
+		compare("ProductDFA intersection", ProductDFA.intersection(compiled, subsets), reference, inputs);
+		compare("ProductDFA union with an empty difference",
+				ProductDFA.union(subsets, ProductDFA.difference(compiled, subsets)), reference, inputs);
+		compare("ProductDFA difference with the complement",
+				ProductDFA.difference(compiled, ProductDFA.complement(subsets)), reference, inputs);
+		compare("ProductDFA double complement",
+				ProductDFA.complement(ProductDFA.complement(compiled)), reference, inputs);
+		compare("ProductDFA minimized", ProductDFA.intersection(compiled, subsets).minimize(), reference, inputs);
+		ClosureTable closures = new ClosureTable(compact, POOL);
+		report("ClosureTable closures", checkClosures(nfa, dense, closures));
+		compare("SubsetDFA over a ClosureTable", new SubsetDFA(compact, closures), reference, inputs);
+		// enough unreachable states that getDFA() determinizes over a ClosureTable
+		NFA padded = read(file, null);
+		for (int i = 0; i < NFA.TABLE_LIMIT; i++) {
+			padded.addState("padding" + i);
+		}
+		compare("getDFA through a ClosureTable", matcher(quietly(padded::getDFA)), reference, inputs);
+		compare("ScanMatcher", ScanMatcher.of(nfa), reference, inputs);
+		compare("ScanMatcher forwards", new ScanMatcher(new SubsetDFA(compact), false), reference, inputs);
+		compare("ScanMatcher backwards", new ScanMatcher(new SubsetDFA(compact.reverse()), true), reference, inputs);
+		// a budget of one state leaves the chosen direction lazy
+		compare("ScanMatcher over budget", ScanMatcher.choose(compact, 1), reference, inputs);
+		// the trimmed NFA has the same language, so each includes the other
+		BDD bdd = new BDD();
+		SymbolicNFA whole = new SymbolicNFA(compact, bdd);
+		SymbolicNFA trimmedSymbolic = new SymbolicNFA(DenseNFA.of(trimmed).freeze(), bdd);
+		report("SymbolicNFA inclusion of the trimmed NFA", whole.counterexample(trimmedSymbolic));
+		report("SymbolicNFA inclusion in the trimmed NFA", trimmedSymbolic.counterexample(whole));
+		return compact;
+	}
+
+	/**
+	 * Checks the products of two NFAs over the same alphabet, so that unlike
+	 * the products of an NFA with itself a product that ignored one operand
+	 * would fail. The inputs are every string of at most LENGTH symbols.
+	 *
+	 * @param a - the left NFA
+	 * @param b - the right NFA
+	 */
+	private static void checkPair(CompactNFA a, CompactNFA b) {
+		List<Character> symbols = new ArrayList<Character>();
+		for (char c : a.getSymbols()) {
+			symbols.add(c);
+		}
+		List<String> inputs = new ArrayList<String>();
+		inputs.add("e");
+		addStrings(inputs, symbols, "", LENGTH);
+		SubsetDFA left = new SubsetDFA(a);
+		SubsetDFA right = new SubsetDFA(b);
+		compare("ProductDFA difference", ProductDFA.difference(left, right),
+				input -> a.accepts(input) && !b.accepts(input), inputs);
+		compare("ProductDFA union", ProductDFA.union(left, right), input -> a.accepts(input) || b.accepts(input),
+				inputs);
+		compare("ProductDFA intersection", ProductDFA.intersection(left, right),
+				input -> a.accepts(input) && b.accepts(input), inputs);
+	}
+
+	/**
+	 * @param dfa - a DFA
+	 * @return a matcher that asks the DFA
+	 */
+	private static Matcher matcher(DFA dfa) {
+		return input -> dfa.accepts(input.toString());
+	}
+
+	/**
+	 * Prints the result of a check that searches for a counterexample.
+	 *
+	 * @param name - what the check is called in the output
+	 * @param counterexample - the input the check found, or null
+	 */
+	private static void report(String name, String counterexample) {
+		if (counterexample != null) {
+			System.out.println("  " + name + ": FAILED on " + counterexample);
+			failures++;
+		} else {
+			System.out.println("  " + name + ": ok");
+		}
+	}
+
+	/**
+	 * Compares the counts and samples of a WordCounter with the strings of
+	 * at most LENGTH symbols that the reference accepts.
+	 *
+	 * @param counter - the counter to check
+	 * @param reference - the matcher it should agree with
+	 * @param symbols - the alphabet
+	 * @return the first disagreement, or null
+	 */
+	private static String checkCounts(WordCounter counter, Matcher reference, List<Character> symbols) {
+		List<String> words = new ArrayList<String>();
+		words.add("e");
+		addStrings(words, symbols, "", LENGTH);
+		long[] accepted = new long[LENGTH + 1];
+		for (String word : words) {
+			if (reference.accepts(word)) {
+				accepted[Matcher.isEmptyString(word) ? 0 : word.length()]++;
+			}
+		}
+		Random random = new Random(LENGTH);
+		for (int length = 0; length <= LENGTH; length++) {
+			if (counter.count(length).longValue() != accepted[length]) {
+				return "count of length " + length;
+			}
+			if (counter.countMod(length, 7) != accepted[length] % 7) {
+				return "countMod of length " + length;
+			}
+			for (int i = 0; i < 4; i++) {
+				String sample = counter.sample(length, random);
+				if (sample == null ? accepted[length] > 0
+						: !reference.accepts(sample) || (length == 0 ? !sample.equals("e") : sample.length() != length)) {
+					return "sample of length " + length + ": " + sample;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Compares the closure rows of a ClosureTable with NFA.eClosure.
+	 *
+	 * @param nfa - the NFA
+	 * @param dense - the NFA as a DenseNFA, which numbers its states
+	 * @param table - the table of the frozen DenseNFA
+	 * @return the first state whose closure differs, or null
+	 */
+	private static String checkClosures(NFA nfa, DenseNFA dense, ClosureTable table) {
+		Map<String, NFAState> byName = new HashMap<String, NFAState>();
+		for (NFAState s : nfa.getStates()) {
+			byName.put(s.getName(), s);
+		}
+		for (int s = 0; s < dense.numStates(); s++) {
+			HashSet<String> row = new HashSet<String>();
+			for (int i = table.closureStart(s); i < table.closureEnd(s); i++) {
+				row.add(dense.getName(table.closureState(i)));
+			}
+			HashSet<String> expected = new HashSet<String>();
+			for (NFAState t : nfa.eClosure(byName.get(dense.getName(s)))) {
+				expected.add(t.getName());
+			}
+			if (!row.equals(expected)) {
+				return "state " + dense.getName(s);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the NFA of a test file.
+	 *
+	 * @param file - the test file
+	 * @param inputs - where the input strings of the file go, or null
+	 * @return the NFA
+	 * @throws IOException
+	 */
+	private static NFA read(File file, List<String> inputs) throws IOException {
+		try (InputStream in = new FileInputStream(file)) {
+			NFALoader loader = new NFALoader(in);
+			NFA nfa = loader.load().toNFA();
+			String input;
+			while (inputs != null && (input = loader.nextInput()) != null) {
+				inputs.add(input);
+			}
+			return nfa;
+		}
+	}
+
+	/**
+	 * Runs a computation with System.out discarded. getDFA() warns about
+	 * subset names it made twice, and those depend on the order of hash sets,
+	 * so they are kept out of the report.
+	 *
+	 * @param computation - what to run
+	 * @return its result
+	 * @throws IOException
+	 */
+	private static <T> T quietly(Computation<T> computation) throws IOException {
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		try {
+			return computation.get();
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	/**
+	 * Reads the NFA of a file in the original format the way NFADriver
+	 * does, without NFALoader.
+	 *
+	 * @param file - the test file
+	 * @return the NFA, or null if the file is in the extended format
+	 * @throws IOException
+	 */
+	private static NFA readOriginal(File file) throws IOException {
+		try (Scanner scan = new Scanner(file)) {
+			NFA nfa = new NFA();
+			String finalStates = scan.nextLine().trim();
+			if (finalStates.equals(NFALoader.EXTENDED_HEADER)) {
+				return null;
+			}
+			StringTokenizer tk = new StringTokenizer(finalStates, " ");
+			while (tk.hasMoreTokens()) {
+				nfa.addFinalState(tk.nextToken());
+			}
+			nfa.addStartState(scan.nextLine().trim());
+			tk = new StringTokenizer(scan.nextLine().trim(), " ");
+			while (tk.hasMoreTokens()) {
+				nfa.addState(tk.nextToken());
+			}
+			tk = new StringTokenizer(scan.nextLine(), " ");
+			while (tk.hasMoreTokens()) {
+				char[] tran = tk.nextToken().toCharArray();
+				nfa.addTransition(String.valueOf(tran[0]), tran[1], String.valueOf(tran[2]));
+			}
+			return nfa;
+		}
+	}
+
+	private interface Computation<T> {
+		T get() throws IOException;
+	}
+
+	/**
+	 * Adds every string over the symbols of 1 to length symbols after prefix.
+	 */
+	private static void addStrings(List<String> inputs, List<Character> symbols, String prefix, int length) {
+		if (length == 0) {
+			return;
+		}
+		for (char c : symbols) {
+			inputs.add(prefix + c);
+			addStrings(inputs, symbols, prefix + c, length - 1);
+		}
+	}
+
+	/**
+	 * Compares a matcher with the reference on every input and prints the
+	 * result.
+	 *
+	 * @param name - what the matcher is called in the output
+	 * @param matcher - the matcher to check
+	 * @param reference - the matcher it should agree with
+	 * @param inputs - the inputs
+	 */
+	private static void compare(String name, Matcher matcher, Matcher reference, List<String> inputs) {
+		for (String input : inputs) {
+			boolean expected = reference.accepts(input);
+			if (matcher.accepts(input) != expected) {
+				System.out.println("  " + name + ": FAILED on " + input + ", expected " + (expected ? "yes" : "no"));
+				failures++;
+				return;
+			}
+		}
+		System.out.println("  " + name + ": ok on " + inputs.size() + " inputs");
+	}
+}
@@ -2,24 +2,52 @@ package fa.nfa;
 
 import java.util.HashSet;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.Set;
 import java.util.Queue;
 import java.util.Stack;
+import java.util.TreeSet;
 
+import fa.Matcher;
 import fa.dfa.*;
 
 public class NFA implements NFAInterface {
 
     private HashSet<NFAState> states; // States
+    private HashMap<String, NFAState> index; // States by name
+    private NFAState start; // q0
     private HashSet<Character> alphabet; // Alphabet
     private final char EMPTY_CHAR = 'e';
+    private static final int LITERAL_LIMIT = 1 << 16; // Most strings getMatcher() puts in a trie
+    static final int TABLE_LIMIT = 1 << 10; // Fewest states getDFA() determinizes with a SubsetDFA for
+
+    private long version; // Bumped on every mutation
+    private long dfaVersion = -1; // Version the cached DFA was built from
+    private DFA cachedDFA;
+    private CompiledDFA cachedCompiled; // Compiled form of cachedDFA, made on first use
+    private HashMap<Character, HashMap<NFAState, HashSet<NFAState>>> possibleStates; // Memoized successor table
+    private HashSet<NFAState> dirty; // States whose out-edges changed since the table was built
+    private boolean alphabetChanged;
+    private boolean shortNames; // Every state name has one character, see subsetName
 
     /**
-     * Constructor, just instantiates our two instance variables.
+     * Constructor, just instantiates our instance variables.
      */
     public NFA() {
         states = new HashSet<NFAState>();
+        index = new HashMap<String, NFAState>();
         alphabet = new HashSet<Character>();
+        dirty = new HashSet<NFAState>();
+    }
+
+    /**
+     * Returns the modification version of the NFA. Every call to one of the add
+     * methods bumps it, so two equal versions mean the NFA has not changed.
+     * 
+     * @return long
+     */
+    public long getVersion() {
+        return version;
     }
 
     /**
@@ -29,10 +57,16 @@ public class NFA implements NFAInterface {
      * @param name: String
      */
     public void addStartState(String name) {
-        if (getState(name) == null) {
-            states.add(new NFAState(name, false, true));
+        version++;
+        NFAState s = getState(name);
+        if (s == null) {
+            s = new NFAState(name, false, true);
+            addState(s);
         } else {
-            getState(name).setInitial(true);
+            s.setInitial(true);
+        }
+        if (start == null) {
+            start = s;
         }
     }
 
@@ -44,7 +78,8 @@ public class NFA implements NFAInterface {
     public void addState(String name) {
         if (getState(name) != null)
             return;
-        states.add(new NFAState(name, false, false));
+        version++;
+        addState(new NFAState(name, false, false));
     }
 
     /**
@@ -54,13 +89,25 @@ public class NFA implements NFAInterface {
      * @param name: String
      */
     public void addFinalState(String name) {
-        if (getState(name) == null) {
-            states.add(new NFAState(name, true, false));
+        version++;
+        NFAState s = getState(name);
+        if (s == null) {
+            addState(new NFAState(name, true, false));
         } else {
-            getState(name).setFinal(true);
+            s.setFinal(true);
         }
     }
 
+    /**
+     * Registers a new state in Q and in the name index.
+     * 
+     * @param s: NFAState
+     */
+    private void addState(NFAState s) {
+        states.add(s);
+        index.put(s.getName(), s);
+    }
+
     /**
      * Adds the transition to the NFA's delta data structure
      * 
@@ -69,10 +116,14 @@ public class NFA implements NFAInterface {
      * @param toState   is the label of the state where the transition ends
      */
     public void addTransition(String fromState, char onSymb, String toState) {
+        version++;
         if (!alphabet.contains(onSymb) && onSymb != 'e') {
             alphabet.add(onSymb);
+            alphabetChanged = true;
         }
-        getState(fromState).addTransition(onSymb, getState(toState));
+        NFAState from = getState(fromState);
+        from.addTransition(onSymb, getState(toState));
+        dirty.add(from);
     }
 
     /**
@@ -105,12 +156,7 @@ public class NFA implements NFAInterface {
      * @return the start state of FA
      */
     public NFAState getStartState() {
-        for (NFAState s : states) {
-            if (s.isInitial()) {
-                return s;
-            }
-        }
-        return null;
+        return start;
     }
 
     /**
@@ -123,18 +169,184 @@ public class NFA implements NFAInterface {
     }
 
     /**
+     * Returns the equivalent DFA. The DFA is memoized: as long as the NFA is not
+     * modified it is not built again. Every call returns a fresh copy of it, so
+     * a caller that changes its DFA, for example with DFA.trim(), does not
+     * change what later calls return, but each call costs time in the size of
+     * the DFA. getCompiledDFA() returns the memoized DFA without copying.
+     * 
+     * Only the successor table is kept up to date incrementally: after a
+     * modification the rows that the changed states can affect are recomputed.
+     * The subset construction, which can take time exponential in the number
+     * of NFA states, always runs again from scratch, even if the change only
+     * affects a few subsets.
+     * 
+     * NFAs of at least TABLE_LIMIT states are too large for the recursive
+     * construction, which recurses once per DFA state and names subsets by
+     * strings. They are determinized by a SubsetDFA that reads a ClosureTable
+     * built in parallel, and the DFA states are named by their numbers, with
+     * "dead" for the sink. Such a DFA is rebuilt from scratch after every
+     * modification.
      * 
      * @return equivalent DFA
      */
     public DFA getDFA() {
+        return memoizedDFA().copy();
+    }
+
+    /**
+     * Returns the memoized DFA in its compiled form. The tables cannot be
+     * modified, so as long as the NFA is not modified every call returns the
+     * same instance, and it can be shared between threads.
+     * 
+     * @return CompiledDFA
+     */
+    public CompiledDFA getCompiledDFA() {
+        DFA dfa = memoizedDFA();
+        if (cachedCompiled == null) {
+            cachedCompiled = dfa.compile();
+        }
+        return cachedCompiled;
+    }
+
+    /**
+     * Returns the memoized DFA itself, building it first if the NFA changed
+     * since it was built. Callers must not modify it.
+     * 
+     * @return DFA
+     */
+    private DFA memoizedDFA() {
+        if (cachedDFA != null && dfaVersion == version) {
+            return cachedDFA;
+        }
+        if (states.size() >= TABLE_LIMIT) {
+            CompactNFA compact = toDense().freeze();
+            cachedDFA = new SubsetDFA(compact, new ClosureTable(compact)).materialize().toDFA();
+            cachedCompiled = null;
+            dfaVersion = version;
+            return cachedDFA;
+        }
         DFA retDFA = new DFA();
-        HashMap<Character, HashMap<NFAState, HashSet<NFAState>>> possible_states = getAllPossibleStates();
+        HashMap<Character, HashMap<NFAState, HashSet<NFAState>>> possible_states = getPossibleStates();
         HashSet<NFAState> start_state = eClosure(getStartState());
+        shortNames = true;
+        for (String name : index.keySet()) {
+            shortNames &= name.length() == 1;
+        }
         retDFA = getDFABFS(start_state, possible_states, retDFA, true, new HashSet<String>(), new HashSet<String>(),
                 "");
+        cachedDFA = retDFA;
+        cachedCompiled = null;
+        dfaVersion = version;
         return retDFA;
     }
 
+    /**
+     * Returns a matcher for the NFA. If the NFA accepts a finite set of at
+     * most 65536 strings, the set is read off the NFA and put in a
+     * LiteralMatcher without determinizing. Any other NFA gets
+     * getCompiledDFA().
+     * 
+     * @return Matcher
+     */
+    public Matcher getMatcher() {
+        LiteralMatcher literals = LiteralMatcher.of(toDense().freeze(), LITERAL_LIMIT);
+        if (literals != null) {
+            return literals;
+        }
+        return getCompiledDFA();
+    }
+
+    /**
+     * Brings the memoized successor table up to date and returns it. The whole
+     * table is only rebuilt when it does not exist yet or a new symbol was added.
+     * Otherwise a row is recomputed if its state is new, or if the state can
+     * reach a modified state, either through epsilon transitions alone or
+     * through a single symbol transition with epsilon transitions around it.
+     * 
+     * @return HashMap<Character, HashMap<NFAState, HashSet<NFAState>>>
+     */
+    private HashMap<Character, HashMap<NFAState, HashSet<NFAState>>> getPossibleStates() {
+        if (possibleStates == null || alphabetChanged) {
+            possibleStates = getAllPossibleStates();
+        } else {
+            for (NFAState state : getAffectedStates()) {
+                for (Character char_ : alphabet) {
+                    possibleStates.get(char_).put(state, getStatesForChar(char_, state, new HashSet<NFAState>()));
+                }
+            }
+        }
+        dirty.clear();
+        alphabetChanged = false;
+        return possibleStates;
+    }
+
+    /**
+     * Collects the states whose successor table rows are stale, see
+     * getPossibleStates.
+     * 
+     * @return HashSet<NFAState>
+     */
+    private HashSet<NFAState> getAffectedStates() {
+        HashMap<NFAState, HashSet<NFAState>> ePreds = new HashMap<NFAState, HashSet<NFAState>>();
+        HashMap<NFAState, HashSet<NFAState>> symPreds = new HashMap<NFAState, HashSet<NFAState>>();
+        HashSet<NFAState> affected = new HashSet<NFAState>();
+        if (possibleStates.isEmpty()) {
+            return affected;
+        }
+        HashMap<NFAState, HashSet<NFAState>> anyRow = possibleStates.values().iterator().next();
+        for (NFAState s : states) {
+            if (!anyRow.containsKey(s)) {
+                affected.add(s);
+            }
+            for (Character c : s.getTransitions().keySet()) {
+                HashMap<NFAState, HashSet<NFAState>> preds = isEmptyString(c) ? ePreds : symPreds;
+                for (NFAState to : s.transition(c)) {
+                    if (preds.get(to) == null) {
+                        preds.put(to, new HashSet<NFAState>());
+                    }
+                    preds.get(to).add(s);
+                }
+            }
+        }
+        // the closure of every state in eReach contains a dirty state
+        HashSet<NFAState> eReach = eBackward(dirty, ePreds);
+        affected.addAll(eReach);
+        // and so does the closure of some symbol successor of these states
+        HashSet<NFAState> symReach = new HashSet<NFAState>();
+        for (NFAState s : eReach) {
+            if (symPreds.get(s) != null) {
+                symReach.addAll(symPreds.get(s));
+            }
+        }
+        affected.addAll(eBackward(symReach, ePreds));
+        return affected;
+    }
+
+    /**
+     * Returns the seeds together with every state that reaches one of them on
+     * epsilon transitions alone.
+     * 
+     * @param seeds
+     * @param ePreds epsilon predecessors of each state
+     * @return HashSet<NFAState>
+     */
+    private HashSet<NFAState> eBackward(Set<NFAState> seeds, HashMap<NFAState, HashSet<NFAState>> ePreds) {
+        HashSet<NFAState> reach = new HashSet<NFAState>(seeds);
+        Queue<NFAState> queue = new LinkedList<NFAState>(seeds);
+        while (!queue.isEmpty()) {
+            HashSet<NFAState> preds = ePreds.get(queue.poll());
+            if (preds != null) {
+                for (NFAState p : preds) {
+                    if (reach.add(p)) {
+                        queue.add(p);
+                    }
+                }
+            }
+        }
+        return reach;
+    }
+
     /**
      * This is our breadth first approach to getting our DFA. It was written as a
      * helper function initially with the intention of breaking our function down to
@@ -157,10 +369,13 @@ public class NFA implements NFAInterface {
             HashMap<Character, HashMap<NFAState, HashSet<NFAState>>> possible_states, DFA dfa, boolean initial,
             HashSet<String> seen, HashSet<String> states_visited, String startState) {
         String name = "";
+        boolean nameFinal = false;
         HashMap<Character, HashSet<NFAState>> transitions = new HashMap<Character, HashSet<NFAState>>();
 
         for (NFAState s : states) {
-            name += s;
+            if (s.isFinal()) {
+                nameFinal = true;
+            }
             for (Character c : alphabet) {
                 if (transitions.get(c) == null) {
                     transitions.put(c, new HashSet<NFAState>());
@@ -169,6 +384,7 @@ public class NFA implements NFAInterface {
             }
         }
 
+        name = subsetName(states);
         if (initial) {
             startState = name;
         }
@@ -181,19 +397,20 @@ public class NFA implements NFAInterface {
         }
 
         for (Character c : transitions.keySet()) {
-            String newName = "";
             boolean finalFlag = false;
             HashSet<NFAState> transitions_new = transitions.get(c);
+            String newName = subsetName(transitions_new);
 
             for (NFAState ss : transitions_new) {
-                newName += ss;
                 if (ss.isFinal()) {
                     finalFlag = true;
                 }
             }
 
             if (name.equals(startState)) {
-                if (finalFlag && name.equals(newName)) {
+                // the start state is final if its set has a final state, even
+                // when no transition leads back to it under the same name
+                if ((finalFlag && name.equals(newName)) || (nameFinal && dfa.getStartState() == null)) {
                     dfa.addFinalState(name);
                     dfa.addStartState(name);
                 } else {
@@ -232,6 +449,35 @@ public class NFA implements NFAInterface {
         return dfa;
     }
 
+    /**
+     * Names the DFA state of a set of NFA states; the name is also how
+     * getDFABFS tells sets apart. When every name has one character the names
+     * are concatenated as they always were, which cannot make the same name
+     * for two sets. Longer names could run together, {a, b} and {ab} would
+     * both be "ab", so then the sorted names are listed in brackets, which is
+     * unambiguous since names have no white space. The empty set is "".
+     * 
+     * @param set: Set<NFAState>
+     * @return String
+     */
+    private String subsetName(Set<NFAState> set) {
+        if (set.isEmpty()) {
+            return "";
+        }
+        if (shortNames) {
+            String name = "";
+            for (NFAState s : set) {
+                name += s;
+            }
+            return name;
+        }
+        TreeSet<String> names = new TreeSet<String>();
+        for (NFAState s : set) {
+            names.add(s.getName());
+        }
+        return names.toString();
+    }
+
     /**
      * Constructs and returns an association of Character to State to Set of States.
      * Think of this as our first step to converting our NFA to a DFA. We need a
@@ -352,7 +598,7 @@ public class NFA implements NFAInterface {
             s += '\t';
         }
         s += '\n';
-        HashMap<Character, HashMap<NFAState, HashSet<NFAState>>> possStates = getAllPossibleStates();
+        HashMap<Character, HashMap<NFAState, HashSet<NFAState>>> possStates = getPossibleStates();
         for (NFAState st : states) {
             s += '\t' + st.getName();
             for (Character c : alphabet) {
@@ -386,11 +632,89 @@ public class NFA implements NFAInterface {
      * @return NFAState
      */
     private NFAState getState(String name) {
+        return index.get(name);
+    }
+
+    /**
+     * Trims the NFA: removes every state that cannot be reached from the start
+     * state, or from which no final state can be reached, together with the
+     * transitions into it. The start state is always kept. The alphabet does not
+     * change, even if no transitions on some symbols are left, so the DFA still
+     * has a transition on every symbol.
+     * 
+     * @return the number of removed states
+     */
+    public int trim() {
+        HashMap<NFAState, HashSet<NFAState>> preds = new HashMap<NFAState, HashSet<NFAState>>();
+        for (NFAState s : states) {
+            for (HashSet<NFAState> targets : s.getTransitions().values()) {
+                for (NFAState to : targets) {
+                    if (preds.get(to) == null) {
+                        preds.put(to, new HashSet<NFAState>());
+                    }
+                    preds.get(to).add(s);
+                }
+            }
+        }
+        // forward search from the start state
+        HashSet<NFAState> reachable = new HashSet<NFAState>();
+        Queue<NFAState> queue = new LinkedList<NFAState>();
+        if (start != null) {
+            reachable.add(start);
+            queue.add(start);
+        }
+        while (!queue.isEmpty()) {
+            for (HashSet<NFAState> targets : queue.poll().getTransitions().values()) {
+                for (NFAState to : targets) {
+                    if (reachable.add(to)) {
+                        queue.add(to);
+                    }
+                }
+            }
+        }
+        // backward search from the final states
+        HashSet<NFAState> coaccessible = new HashSet<NFAState>(getFinalStates());
+        queue.addAll(coaccessible);
+        while (!queue.isEmpty()) {
+            HashSet<NFAState> p = preds.get(queue.poll());
+            if (p != null) {
+                for (NFAState s : p) {
+                    if (coaccessible.add(s)) {
+                        queue.add(s);
+                    }
+                }
+            }
+        }
+
+        HashSet<NFAState> kept = new HashSet<NFAState>();
         for (NFAState s : states) {
-            if (s.getName().equals(name)) {
-                return s;
+            if (s == start || (reachable.contains(s) && coaccessible.contains(s))) {
+                kept.add(s);
+            }
+        }
+        int removed = states.size() - kept.size();
+        for (NFAState s : kept) {
+            for (Character c : new HashSet<Character>(s.getTransitions().keySet())) {
+                s.transition(c).retainAll(kept);
+                if (s.transition(c).isEmpty()) {
+                    s.removeTransition(c);
+                }
             }
         }
-        return null;
+        states.retainAll(kept);
+        index.values().retainAll(kept);
+        version++;
+        possibleStates = null;
+        dirty.clear();
+        return removed;
+    }
+
+    /**
+     * Copies the NFA into the dense integer indexed model.
+     * 
+     * @return DenseNFA
+     */
+    public DenseNFA toDense() {
+        return DenseNFA.of(this);
     }
 }
@@ -1,7 +1,9 @@
 package fa.nfa;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Scanner;
 import java.util.StringTokenizer;
 
@@ -19,9 +21,9 @@ public class NFADriver {
 
 	/**
 	 * @param args - a file name containing a DFA encoding and a set of strings.
-	 * @throws FileNotFoundException
+	 * @throws IOException
 	 */
-	public static void main(String[] args) throws FileNotFoundException {
+	public static void main(String[] args) throws IOException {
 		// The file name is passed as an argument
 		String fileName = args[0];
 		File file = new File(fileName);
@@ -33,6 +35,11 @@ public class NFADriver {
 			// the first line is the set of final states
 			// get the string of the final states and split it on a space
 			String finalStates = scan.nextLine().trim();
+			if (finalStates.equals(NFALoader.EXTENDED_HEADER)) {
+				scan.close();
+				runExtended(file);
+				return;
+			}
 			// using tokenizer to split the string
 			StringTokenizer tk = new StringTokenizer(finalStates, " ");
 			while (tk.hasMoreTokens()) {
@@ -72,4 +79,28 @@ public class NFADriver {
 		}
 	}
 
+	/**
+	 * Does what main does for a file in the extended format, which only
+	 * NFALoader reads.
+	 * 
+	 * @param file - a file that starts with the "#NFA" line
+	 * @throws IOException
+	 */
+	private static void runExtended(File file) throws IOException {
+		try (InputStream in = new FileInputStream(file)) {
+			NFALoader loader = new NFALoader(in);
+			NFA nfa = loader.load().toNFA();
+			DFA dfa = nfa.getDFA();
+			// print out dfa in the specified format.
+			System.out.println(dfa);
+			// now call the method again and process the strings
+			dfa = nfa.getDFA();
+			String input;
+			while ((input = loader.nextInput()) != null) {
+				boolean accepts = dfa.accepts(input);
+				System.out.println(accepts ? "yes" : "no");
+			}
+		}
+	}
+
 }
@@ -0,0 +1,286 @@
+package fa.nfa;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming loader for NFA files that builds straight into a DenseNFA.
+ * Lines are cut out of a byte buffer and tokenized in place, and state
+ * names are interned by hashing their bytes, so the only Strings made are
+ * one per distinct state name.
+ *
+ * Two formats are read. The original format is the one NFADriver reads:
+ * final states, start state and other states on one line each, then all
+ * transitions on one line as tokens like "a0b", so every state name is a
+ * single character. The extended format starts with a line "#NFA", and
+ * after the three state lines it has one transition per line as
+ * "from symbol to", where names are any tokens without white space and the
+ * symbol is a single character. The transitions end at the first empty
+ * line. In both formats the rest of the file are input strings, one per
+ * line, which nextInput() returns.
+ */
+public class NFALoader {
+
+    static final String EXTENDED_HEADER = "#NFA"; // First line of the extended format
+
+    private final InputStream in;
+    private byte[] buf = new byte[1 << 16];
+    private int pos; // Start of the unread data in buf
+    private int limit; // End of the data in buf
+    private boolean eof;
+    private int lineStart;
+    private int lineEnd;
+
+    private DenseNFA nfa;
+    // open addressing table from name bytes to state id
+    private int[] table = new int[1 << 10];
+    private byte[] nameBytes = new byte[1 << 12];
+    private int[] nameStart = new int[1 << 9];
+    private int nameBytesUsed;
+
+    /**
+     * @param in: the stream to read, which the caller closes
+     */
+    public NFALoader(InputStream in) {
+        this.in = in;
+        Arrays.fill(table, -1);
+    }
+
+    /**
+     * Reads the NFA part of the file.
+     *
+     * @return DenseNFA
+     * @throws IOException if reading fails or the file is malformed
+     */
+    public DenseNFA load() throws IOException {
+        nfa = new DenseNFA(1 << 9, 1 << 12);
+        if (!nextLine()) {
+            throw new IOException("empty NFA file");
+        }
+        boolean extended = lineEquals(EXTENDED_HEADER);
+        if (extended && !nextLine()) {
+            throw new IOException("missing final states");
+        }
+        for (int t = lineStart; (t = skipBlanks(t)) < lineEnd; t = tokenEnd(t)) {
+            nfa.setFinal(intern(t, tokenEnd(t)));
+        }
+        expectLine("start state");
+        int t = skipBlanks(lineStart);
+        if (t < lineEnd) {
+            nfa.setStart(intern(t, tokenEnd(t)));
+        }
+        expectLine("states");
+        for (t = lineStart; (t = skipBlanks(t)) < lineEnd; t = tokenEnd(t)) {
+            intern(t, tokenEnd(t));
+        }
+        if (extended) {
+            while (nextLine() && skipBlanks(lineStart) < lineEnd) {
+                readTransition();
+            }
+        } else {
+            expectLine("transitions");
+            for (t = lineStart; (t = skipBlanks(t)) < lineEnd; t = tokenEnd(t)) {
+                if (tokenEnd(t) - t != 3 || (buf[t] | buf[t + 1] | buf[t + 2]) < 0) {
+                    throw new IOException("bad transition " + text(t, tokenEnd(t)));
+                }
+                nfa.addTransition(intern(t, t + 1), (char) buf[t + 1], intern(t + 2, t + 3));
+            }
+        }
+        return nfa;
+    }
+
+    /**
+     * Returns the next input string after the NFA.
+     *
+     * @return String, or null at the end of the file
+     * @throws IOException if reading fails
+     */
+    public String nextInput() throws IOException {
+        if (!nextLine()) {
+            return null;
+        }
+        return text(lineStart, lineEnd);
+    }
+
+    /**
+     * Parses a "from symbol to" line of the extended format.
+     */
+    private void readTransition() throws IOException {
+        int f = skipBlanks(lineStart);
+        int fEnd = tokenEnd(f);
+        int s = skipBlanks(fEnd);
+        int sEnd = tokenEnd(s);
+        int to = skipBlanks(sEnd);
+        int toEnd = tokenEnd(to);
+        if (to >= lineEnd || skipBlanks(toEnd) < lineEnd) {
+            throw new IOException("bad transition " + text(lineStart, lineEnd));
+        }
+        int from = intern(f, fEnd);
+        nfa.addTransition(from, symbol(s, sEnd), intern(to, toEnd));
+    }
+
+    /**
+     * Decodes a one character UTF-8 token.
+     */
+    private char symbol(int start, int end) throws IOException {
+        int b = buf[start] & 0xFF;
+        int c;
+        if (b < 0x80 && end - start == 1) {
+            c = b;
+        } else if ((b & 0xE0) == 0xC0 && end - start == 2) {
+            c = ((b & 0x1F) << 6) | (buf[start + 1] & 0x3F);
+        } else if ((b & 0xF0) == 0xE0 && end - start == 3) {
+            c = ((b & 0x0F) << 12) | ((buf[start + 1] & 0x3F) << 6) | (buf[start + 2] & 0x3F);
+        } else {
+            throw new IOException("symbol is not a single character: " + text(start, end));
+        }
+        return (char) c;
+    }
+
+    /**
+     * Returns the state id of the name in buf[start, end), adding the state
+     * when the name is new.
+     */
+    private int intern(int start, int end) {
+        int h = hash(buf, start, end);
+        int mask = table.length - 1;
+        for (int slot = h & mask;; slot = (slot + 1) & mask) {
+            int id = table[slot];
+            if (id < 0) {
+                return addName(slot, start, end);
+            }
+            int len = nameStart[id + 1] - nameStart[id];
+            if (len == end - start
+                    && Arrays.equals(nameBytes, nameStart[id], nameStart[id + 1], buf, start, end)) {
+                return id;
+            }
+        }
+    }
+
+    private int addName(int slot, int start, int end) {
+        int id = nfa.intern(text(start, end));
+        table[slot] = id;
+        int len = end - start;
+        if (nameBytesUsed + len > nameBytes.length) {
+            nameBytes = Arrays.copyOf(nameBytes, Math.max(nameBytes.length * 2, nameBytesUsed + len));
+        }
+        System.arraycopy(buf, start, nameBytes, nameBytesUsed, len);
+        if (id + 2 > nameStart.length) {
+            nameStart = Arrays.copyOf(nameStart, nameStart.length * 2);
+        }
+        nameStart[id] = nameBytesUsed;
+        nameBytesUsed += len;
+        nameStart[id + 1] = nameBytesUsed;
+        if (2 * (id + 1) > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        int[] old = table;
+        table = new int[old.length * 2];
+        Arrays.fill(table, -1);
+        int mask = table.length - 1;
+        for (int id : old) {
+            if (id < 0) {
+                continue;
+            }
+            int slot = hash(nameBytes, nameStart[id], nameStart[id + 1]) & mask;
+            while (table[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id;
+        }
+    }
+
+    /**
+     * FNV-1a over the bytes, with a final mix because the table uses the low
+     * bits and FNV only carries entropy upwards.
+     */
+    private static int hash(byte[] b, int start, int end) {
+        int h = 0x811C9DC5;
+        for (int i = start; i < end; i++) {
+            h = (h ^ b[i]) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        return h ^ (h >>> 13);
+    }
+
+    private void expectLine(String what) throws IOException {
+        if (!nextLine()) {
+            throw new IOException("missing " + what);
+        }
+    }
+
+    private boolean lineEquals(String s) {
+        return text(lineStart, lineEnd).trim().equals(s);
+    }
+
+    private int skipBlanks(int i) {
+        while (i < lineEnd && (buf[i] == ' ' || buf[i] == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    private int tokenEnd(int i) {
+        while (i < lineEnd && buf[i] != ' ' && buf[i] != '\t') {
+            i++;
+        }
+        return i;
+    }
+
+    private String text(int start, int end) {
+        return new String(buf, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Makes the next line available as buf[lineStart, lineEnd), without the
+     * line break. The buffer grows when a line does not fit.
+     *
+     * @return false at the end of the file
+     */
+    private boolean nextLine() throws IOException {
+        int scan = pos;
+        while (true) {
+            for (; scan < limit; scan++) {
+                if (buf[scan] == '\n') {
+                    setLine(pos, scan);
+                    pos = scan + 1;
+                    return true;
+                }
+            }
+            if (eof) {
+                if (pos == limit) {
+                    return false;
+                }
+                setLine(pos, limit);
+                pos = limit;
+                return true;
+            }
+            // compact, grow if the line fills the buffer, and refill
+            scan -= pos;
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+            if (limit == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            int n = in.read(buf, limit, buf.length - limit);
+            if (n < 0) {
+                eof = true;
+            } else {
+                limit += n;
+            }
+        }
+    }
+
+    private void setLine(int start, int end) {
+        lineStart = start;
+        lineEnd = end > start && buf[end - 1] == '\r' ? end - 1 : end;
+    }
+}
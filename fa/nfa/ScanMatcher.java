@@ -0,0 +1,113 @@
+package fa.nfa;
+
+import fa.Matcher;
+import fa.dfa.LazyDFA;
+
+/**
+ * Matches an NFA by running a DFA over the input either forwards, or
+ * backwards over the reversed NFA. Patterns that only constrain the end of
+ * the input, like "the k-th symbol from the end is 1", need about 2^k
+ * subsets when determinized forwards, while the reversed NFA determinizes
+ * into k + 2 states.
+ *
+ * choose() picks the direction by building both subset automata until one
+ * of them exceeds a state budget. A direction that fits is materialized
+ * into a table, and a direction that does not keeps building subsets on
+ * demand while it runs.
+ */
+public class ScanMatcher implements Matcher {
+
+    private static final int DEFAULT_BUDGET = 1 << 12;
+
+    private final LazyDFA dfa;
+    private final boolean reverse;
+
+    /**
+     * @param dfa:     LazyDFA to run
+     * @param reverse: boolean true if the DFA reads the input from the end
+     */
+    public ScanMatcher(LazyDFA dfa, boolean reverse) {
+        this.dfa = dfa;
+        this.reverse = reverse;
+    }
+
+    /**
+     * Chooses the direction with the default budget of 4096 states.
+     *
+     * @param nfa: NFA
+     * @return ScanMatcher
+     */
+    public static ScanMatcher of(NFA nfa) {
+        return choose(nfa.toDense().freeze(), DEFAULT_BUDGET);
+    }
+
+    /**
+     * Builds the forward and the reversed subset automaton breadth first, in
+     * turns, until both are complete or one has more than budget states.
+     * The smaller direction wins, and forwards wins a tie.
+     *
+     * @param nfa:    CompactNFA
+     * @param budget: int the most subsets to build in each direction
+     * @return ScanMatcher
+     */
+    public static ScanMatcher choose(CompactNFA nfa, int budget) {
+        SubsetDFA forward = new SubsetDFA(nfa);
+        SubsetDFA backward = new SubsetDFA(nfa.reverse());
+        char[] symbols = nfa.getSymbols();
+        int doneForward = 0;
+        int doneBackward = 0;
+        // advance both a state at a time, so neither runs far past the other
+        while (true) {
+            boolean forwardOver = forward.numStates() > budget;
+            boolean backwardOver = backward.numStates() > budget;
+            boolean forwardComplete = doneForward == forward.numStates();
+            boolean backwardComplete = doneBackward == backward.numStates();
+            if (forwardComplete && (backwardOver || forward.numStates() <= backward.numStates())) {
+                return new ScanMatcher(forward.materialize(), false);
+            }
+            if (backwardComplete && (forwardOver || backward.numStates() < forward.numStates())) {
+                return new ScanMatcher(backward.materialize(), true);
+            }
+            if (forwardOver && backwardOver) {
+                return new ScanMatcher(forward.numStates() <= backward.numStates() ? forward : backward,
+                        forward.numStates() > backward.numStates());
+            }
+            if (!forwardComplete && !forwardOver) {
+                expand(forward, doneForward++, symbols);
+            }
+            if (!backwardComplete && !backwardOver) {
+                expand(backward, doneBackward++, symbols);
+            }
+        }
+    }
+
+    private static void expand(SubsetDFA dfa, int state, char[] symbols) {
+        for (char c : symbols) {
+            dfa.step(state, c);
+        }
+    }
+
+    /**
+     * @return true if the input is read from the end
+     */
+    public boolean isReverse() {
+        return reverse;
+    }
+
+    @Override
+    public boolean accepts(CharSequence input) {
+        int state = dfa.getStartState();
+        if (!Matcher.isEmptyString(input)) {
+            if (reverse) {
+                for (int i = input.length() - 1; i >= 0 && state >= 0; i--) {
+                    state = dfa.step(state, input.charAt(i));
+                }
+            } else {
+                for (int i = 0; i < input.length() && state >= 0; i++) {
+                    state = dfa.step(state, input.charAt(i));
+                }
+            }
+        }
+        return state >= 0 && dfa.isFinal(state);
+    }
+}
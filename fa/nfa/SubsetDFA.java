@@ -0,0 +1,190 @@
+package fa.nfa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import fa.dfa.LazyDFA;
+
+/**
+ * Subset construction on demand. A state is a set of NFA states, made the
+ * first time a run reaches it, and the transitions between sets are cached
+ * per symbol class. Sets only keep the states from which a final state can
+ * still be reached, so a run stops as soon as it can no longer accept.
+ *
+ * This lets an NFA take part in a ProductDFA, and matches inputs without
+ * building the whole subset automaton first. It is not thread safe.
+ *
+ * Given a ClosureTable, a step unions the precomputed, already closed
+ * successor rows of the states in the set, instead of stepping on the NFA
+ * and closing the result.
+ */
+public class SubsetDFA implements LazyDFA {
+
+    private static final int UNKNOWN = -2;
+
+    private final CompactNFA nfa;
+    private final ClosureTable table; // Closed successor rows, or null
+    private final long[] live; // Bitset of the states that can reach a final state
+    private final int numSymbols;
+    private final HashMap<Subset, Integer> ids = new HashMap<Subset, Integer>();
+    private final ArrayList<long[]> sets = new ArrayList<long[]>();
+    private boolean[] finals = new boolean[16];
+    private int[] delta; // Cached transitions, UNKNOWN until computed
+    private final int start;
+
+    private final long[] next;
+    private final int[] stack;
+
+    /**
+     * @param nfa: CompactNFA
+     */
+    public SubsetDFA(CompactNFA nfa) {
+        this(nfa, null);
+    }
+
+    /**
+     * @param nfa:   CompactNFA
+     * @param table: ClosureTable of nfa that steps read, or null to step on
+     *               the NFA
+     */
+    public SubsetDFA(CompactNFA nfa, ClosureTable table) {
+        this.nfa = nfa;
+        this.table = table;
+        int words = (nfa.numStates() + 63) >>> 6;
+        boolean[] coaccessible = nfa.coaccessible();
+        live = new long[words];
+        for (int s = 0; s < coaccessible.length; s++) {
+            if (coaccessible[s]) {
+                live[s >>> 6] |= 1L << s;
+            }
+        }
+        numSymbols = nfa.getSymbols().length;
+        delta = new int[16 * numSymbols];
+        Arrays.fill(delta, UNKNOWN);
+        next = new long[words];
+        stack = new int[nfa.numStates()];
+        if (nfa.getStart() < 0) {
+            start = -1;
+        } else {
+            long[] set = new long[words];
+            set[nfa.getStart() >>> 6] |= 1L << nfa.getStart();
+            nfa.eClosure(set, stack);
+            start = intern(set);
+        }
+    }
+
+    /**
+     * Returns the id of a closed set, restricted to live states, making the
+     * state if it is new. The empty set is the rejecting sink.
+     */
+    private int intern(long[] set) {
+        boolean empty = true;
+        for (int w = 0; w < set.length; w++) {
+            set[w] &= live[w];
+            empty &= set[w] == 0;
+        }
+        if (empty) {
+            return -1;
+        }
+        Subset key = new Subset(set);
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        int n = sets.size();
+        long[] copy = set.clone();
+        sets.add(copy);
+        ids.put(new Subset(copy), n);
+        if (n == finals.length) {
+            finals = Arrays.copyOf(finals, n * 2);
+            int old = delta.length;
+            delta = Arrays.copyOf(delta, n * 2 * numSymbols);
+            Arrays.fill(delta, old, delta.length, UNKNOWN);
+        }
+        finals[n] = nfa.containsFinal(copy);
+        return n;
+    }
+
+    @Override
+    public int getStartState() {
+        return start;
+    }
+
+    @Override
+    public int step(int state, char c) {
+        int cls = nfa.symbolClass(c);
+        if (state < 0 || cls < 0) {
+            return -1;
+        }
+        int i = state * numSymbols + cls;
+        if (delta[i] == UNKNOWN) {
+            if (table == null) {
+                nfa.step(sets.get(state), cls, next);
+                nfa.eClosure(next, stack);
+            } else {
+                successors(sets.get(state), cls);
+            }
+            int to = intern(next);
+            delta[i] = to;
+        }
+        return delta[i];
+    }
+
+    /**
+     * Sets next to the union of the successor rows of a set on a symbol
+     * class, which is closed because every row is.
+     */
+    private void successors(long[] set, int cls) {
+        Arrays.fill(next, 0);
+        for (int w = 0; w < set.length; w++) {
+            for (long bits = set[w]; bits != 0; bits &= bits - 1) {
+                int s = (w << 6) + Long.numberOfTrailingZeros(bits);
+                for (int i = table.successorStart(s, cls); i < table.successorEnd(s, cls); i++) {
+                    int t = table.successorState(i);
+                    next[t >>> 6] |= 1L << t;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean isFinal(int state) {
+        return finals[state];
+    }
+
+    @Override
+    public char[] getSymbols() {
+        return nfa.getSymbols();
+    }
+
+    /**
+     * @return the number of subsets built so far
+     */
+    public int numStates() {
+        return sets.size();
+    }
+
+    /**
+     * Hash key wrapper for a bitset.
+     */
+    private static class Subset {
+        private final long[] bits;
+        private final int hash;
+
+        Subset(long[] bits) {
+            this.bits = bits;
+            this.hash = Arrays.hashCode(bits);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Subset && Arrays.equals(bits, ((Subset) o).bits);
+        }
+    }
+}
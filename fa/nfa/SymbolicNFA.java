@@ -0,0 +1,341 @@
+package fa.nfa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import fa.Matcher;
+
+/**
+ * Symbolic form of an NFA, for automata too large to determinize or even
+ * to simulate with explicit bitsets. A state id is encoded in b bits, and a
+ * set of states is the BDD of its encodings over the current state
+ * variables 0, 2, 4, ... The transitions on each symbol, and the epsilon
+ * transitions, are BDD relations between the current variables and the
+ * next state variables 1, 3, 5, ..., so bit i of the source and of the
+ * target sit next to each other in the variable order.
+ *
+ * Sets are plain BDD node ids of the shared manager, so two sets are equal
+ * exactly when their ids are. Large but regular sets, such as all states
+ * of a long chain that can be reached, stay small as BDDs.
+ */
+public class SymbolicNFA implements Matcher {
+
+    private final BDD bdd;
+    private final CompactNFA nfa;
+    private final int bits;
+    private final int[] delta; // Transition relation by symbol class
+    private final int any; // Union of all symbol relations
+    private final int eps;
+    private final int currentCube; // Conjunction of the current variables
+    private final int initial;
+    private final int finals;
+
+    /**
+     * Builds the relations of an NFA in a BDD manager.
+     *
+     * @param nfa: CompactNFA
+     * @param bdd: BDD the manager that holds the sets
+     */
+    public SymbolicNFA(CompactNFA nfa, BDD bdd) {
+        this.nfa = nfa;
+        this.bdd = bdd;
+        int n = nfa.numStates();
+        bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(0, n - 1)));
+        int cube = BDD.TRUE;
+        for (int i = bits - 1; i >= 0; i--) {
+            cube = bdd.mk(2 * i, BDD.FALSE, cube);
+        }
+        currentCube = cube;
+
+        // symbol relations, from the edges sorted by class
+        int k = nfa.getSymbols().length;
+        int m = nfa.numTransitions();
+        long[] keys = new long[m];
+        int[] classStart = new int[k + 1];
+        for (int i = 0; i < m; i++) {
+            classStart[nfa.edgeClass(i) + 1]++;
+        }
+        for (int c = 0; c < k; c++) {
+            classStart[c + 1] += classStart[c];
+        }
+        int[] fill = Arrays.copyOf(classStart, k);
+        for (int s = 0; s < n; s++) {
+            for (int i = nfa.edgeStart(s); i < nfa.edgeEnd(s); i++) {
+                keys[fill[nfa.edgeClass(i)]++] = pair(s, nfa.edgeTarget(i));
+            }
+        }
+        delta = new int[k];
+        int all = BDD.FALSE;
+        for (int c = 0; c < k; c++) {
+            delta[c] = relation(keys, classStart[c], classStart[c + 1]);
+            all = bdd.or(all, delta[c]);
+        }
+        any = all;
+        long[] epsKeys = new long[nfa.numEpsilonTransitions()];
+        int e = 0;
+        for (int s = 0; s < n; s++) {
+            for (int i = nfa.epsStart(s); i < nfa.epsEnd(s); i++) {
+                epsKeys[e++] = pair(s, nfa.epsTarget(i));
+            }
+        }
+        eps = relation(epsKeys, 0, e);
+
+        int[] finalIds = new int[n];
+        int f = 0;
+        for (int s = 0; s < n; s++) {
+            if (nfa.isFinal(s)) {
+                finalIds[f++] = s;
+            }
+        }
+        finals = states(Arrays.copyOf(finalIds, f));
+        initial = nfa.getStart() < 0 ? BDD.FALSE : closure(states(new int[] { nfa.getStart() }));
+    }
+
+    /**
+     * Builds the symbolic form of an NFA in a new BDD manager.
+     *
+     * @param nfa: NFA
+     * @return SymbolicNFA
+     */
+    public static SymbolicNFA of(NFA nfa) {
+        return new SymbolicNFA(nfa.toDense().freeze(), new BDD());
+    }
+
+    /**
+     * Interleaves the bits of a source and a target state, most significant
+     * bit first, source before target.
+     */
+    private long pair(int from, int to) {
+        long key = 0;
+        for (int i = bits - 1; i >= 0; i--) {
+            key = (key << 2) | (((from >>> i) & 1L) << 1) | ((to >>> i) & 1L);
+        }
+        return key;
+    }
+
+    private int relation(long[] keys, int from, int to) {
+        Arrays.sort(keys, from, to);
+        int len = from;
+        for (int i = from; i < to; i++) {
+            if (len == from || keys[i] != keys[len - 1]) {
+                keys[len++] = keys[i];
+            }
+        }
+        return bdd.fromSorted(keys, from, len, 2 * bits, 0, 1);
+    }
+
+    /**
+     * @return BDD the manager that holds the sets
+     */
+    public BDD getBDD() {
+        return bdd;
+    }
+
+    /**
+     * Builds the set of some states.
+     *
+     * @param ids: int[] state ids
+     * @return int set
+     */
+    public int states(int[] ids) {
+        long[] keys = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            keys[i] = ids[i];
+        }
+        Arrays.sort(keys);
+        int len = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (len == 0 || keys[i] != keys[len - 1]) {
+                keys[len++] = keys[i];
+            }
+        }
+        return bdd.fromSorted(keys, 0, len, bits, 0, 2);
+    }
+
+    /**
+     * @return int the epsilon closure of the start state
+     */
+    public int getInitial() {
+        return initial;
+    }
+
+    /**
+     * @return int the set of final states
+     */
+    public int getFinals() {
+        return finals;
+    }
+
+    /**
+     * @param set:   int set of states
+     * @param state: int state id
+     * @return true if state is in the set
+     */
+    public boolean contains(int set, int state) {
+        int node = set;
+        while (node > BDD.TRUE) {
+            int bit = (state >>> (bits - 1 - bdd.varOf(node) / 2)) & 1;
+            node = bit == 0 ? bdd.low(node) : bdd.high(node);
+        }
+        return node == BDD.TRUE && state >= 0 && state < nfa.numStates();
+    }
+
+    /**
+     * @param set: int set of states
+     * @return the number of states in the set
+     */
+    public long count(int set) {
+        return count(set, new HashMap<Integer, Long>()) << level(set);
+    }
+
+    private long count(int node, HashMap<Integer, Long> memo) {
+        if (node <= BDD.TRUE) {
+            return node;
+        }
+        Long c = memo.get(node);
+        if (c == null) {
+            int lo = bdd.low(node);
+            int hi = bdd.high(node);
+            int skip = level(node) + 1;
+            c = (count(lo, memo) << (level(lo) - skip)) + (count(hi, memo) << (level(hi) - skip));
+            memo.put(node, c);
+        }
+        return c;
+    }
+
+    /**
+     * The bit position a node tests, or bits for a constant.
+     */
+    private int level(int node) {
+        return node <= BDD.TRUE ? bits : bdd.varOf(node) / 2;
+    }
+
+    /**
+     * Computes the states reached from a set in one step of a relation,
+     * without the epsilon closure.
+     */
+    private int image(int set, int relation) {
+        return bdd.shiftDown(bdd.relProd(set, relation, currentCube));
+    }
+
+    /**
+     * @param set: int set of states
+     * @return int the set extended with everything reachable on epsilon
+     *         transitions
+     */
+    public int closure(int set) {
+        int frontier = set;
+        while (frontier != BDD.FALSE) {
+            int added = bdd.diff(image(frontier, eps), set);
+            set = bdd.or(set, added);
+            frontier = added;
+        }
+        return set;
+    }
+
+    /**
+     * Symbolic simulation step: the closure of the states reached from a set
+     * on one symbol.
+     *
+     * @param set:    int set of states
+     * @param symbol: char
+     * @return int set, empty if the symbol is not in the alphabet
+     */
+    public int post(int set, char symbol) {
+        int cls = nfa.symbolClass(symbol);
+        return cls < 0 ? BDD.FALSE : closure(image(set, delta[cls]));
+    }
+
+    /**
+     * @return int the set of states reachable from the start state on any
+     *         input
+     */
+    public int reachable() {
+        int reached = initial;
+        int frontier = initial;
+        while (frontier != BDD.FALSE) {
+            int added = bdd.diff(closure(image(frontier, any)), reached);
+            reached = bdd.or(reached, added);
+            frontier = added;
+        }
+        return reached;
+    }
+
+    /**
+     * @return true if the NFA accepts no string at all
+     */
+    public boolean isEmpty() {
+        return bdd.and(reachable(), finals) == BDD.FALSE;
+    }
+
+    @Override
+    public boolean accepts(CharSequence input) {
+        int set = initial;
+        if (!Matcher.isEmptyString(input)) {
+            for (int i = 0; i < input.length() && set != BDD.FALSE; i++) {
+                set = post(set, input.charAt(i));
+            }
+        }
+        return bdd.and(set, finals) != BDD.FALSE;
+    }
+
+    /**
+     * Checks language inclusion, L(this) is a subset of L(other).
+     *
+     * @param other: SymbolicNFA that uses the same BDD manager
+     * @return true if every string this NFA accepts is accepted by other
+     */
+    public boolean isSubsetOf(SymbolicNFA other) {
+        return counterexample(other) == null;
+    }
+
+    /**
+     * Searches for a shortest string accepted by this NFA but not by the
+     * other. The search runs breadth first over pairs of symbolic subsets,
+     * one of each NFA, reached by the same string, and stops at a pair whose
+     * first set contains a final state and whose second does not.
+     *
+     * @param other: SymbolicNFA that uses the same BDD manager
+     * @return String the counterexample, "e" for the empty string, or null
+     *         if L(this) is a subset of L(other)
+     */
+    public String counterexample(SymbolicNFA other) {
+        if (other.bdd != bdd) {
+            throw new IllegalArgumentException("the NFAs must share a BDD manager");
+        }
+        char[] symbols = nfa.getSymbols();
+        HashMap<Long, Integer> seen = new HashMap<Long, Integer>();
+        List<long[]> pairs = new ArrayList<long[]>(); // {this set, other set, parent, symbol}
+        pairs.add(new long[] { initial, other.initial, -1, 0 });
+        seen.put(key(initial, other.initial), 0);
+        for (int head = 0; head < pairs.size(); head++) {
+            int a = (int) pairs.get(head)[0];
+            int b = (int) pairs.get(head)[1];
+            if (bdd.and(a, finals) != BDD.FALSE && bdd.and(b, other.finals) == BDD.FALSE) {
+                StringBuilder word = new StringBuilder();
+                for (int p = head; pairs.get(p)[2] >= 0; p = (int) pairs.get(p)[2]) {
+                    word.append((char) pairs.get(p)[3]);
+                }
+                return word.length() == 0 ? "e" : word.reverse().toString();
+            }
+            // symbols outside this NFA's alphabet lead to the empty set here
+            for (char c : symbols) {
+                int na = post(a, c);
+                if (na == BDD.FALSE) {
+                    continue;
+                }
+                int nb = other.post(b, c);
+                if (seen.putIfAbsent(key(na, nb), pairs.size()) == null) {
+                    pairs.add(new long[] { na, nb, head, c });
+                }
+            }
+        }
+        return null;
+    }
+
+    private static long key(int a, int b) {
+        return ((long) a << 32) | (b & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,84 @@
+package fa.server;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fa.Matcher;
+import fa.nfa.CompactNFA;
+import fa.nfa.LiteralMatcher;
+import fa.nfa.NFALoader;
+import fa.nfa.SubsetDFA;
+
+/**
+ * Named automata that are loaded and compiled once and then shared by all
+ * connections of a MatchServer. Matchers are only read after they are
+ * registered, so they can be used from many threads at once.
+ */
+public class AutomatonRegistry {
+	private static final int LITERAL_LIMIT = 1 << 16; // Most strings put in a trie, as in NFA.getMatcher()
+
+	private final Map<String, Matcher> matchers = new ConcurrentHashMap<String, Matcher>();
+
+	/**
+	 * Registers a matcher, replacing any previous one with the same name
+	 * @param name the name clients refer to
+	 * @param matcher the matcher
+	 */
+	public void register(String name, Matcher matcher) {
+		matchers.put(name, matcher);
+	}
+
+	/**
+	 * Reads an NFA file in either format NFALoader accepts, builds its
+	 * matcher with compile(), and registers the result. Input strings after
+	 * the NFA are ignored.
+	 * @param name the name clients refer to
+	 * @param file the NFA file
+	 * @throws IOException if the file cannot be read
+	 */
+	public void load(String name, File file) throws IOException {
+		CompactNFA nfa;
+		try (InputStream in = new FileInputStream(file)) {
+			nfa = new NFALoader(in).load().freeze();
+		}
+		register(name, compile(nfa));
+	}
+
+	/**
+	 * Builds the matcher for a loaded NFA without going through NFA, whose
+	 * getDFA() names subsets by strings and recurses once per state. Like
+	 * NFA.getMatcher() it tries a LiteralMatcher first; any other NFA is
+	 * determinized by a SubsetDFA over its bitsets, and the table is
+	 * materialized, so the matcher is immutable and can be shared.
+	 * @param nfa the loaded NFA
+	 * @return the matcher
+	 */
+	static Matcher compile(CompactNFA nfa) {
+		LiteralMatcher literals = LiteralMatcher.of(nfa, LITERAL_LIMIT);
+		if (literals != null) {
+			return literals;
+		}
+		return new SubsetDFA(nfa).materialize();
+	}
+
+	/**
+	 * @param name the name of an automaton
+	 * @return the matcher, or null if no automaton has that name
+	 */
+	public Matcher get(String name) {
+		return matchers.get(name);
+	}
+
+	/**
+	 * @return the registered names in sorted order
+	 */
+	public Set<String> getNames() {
+		return new TreeSet<String>(matchers.keySet());
+	}
+}
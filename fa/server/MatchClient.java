@@ -0,0 +1,135 @@
+package fa.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Client for a MatchServer. Each call sends a whole batch of inputs in one
+ * request. The class also has a command line test client that matches the
+ * lines of standard input and prints "yes" or "no" for each, like NFADriver.
+ */
+public class MatchClient implements Closeable {
+	private final SocketChannel channel;
+	private final BufferedReader in;
+	private final Writer out;
+
+	/**
+	 * Connects to a server
+	 * @param address a loopback InetSocketAddress or a UnixDomainSocketAddress
+	 * @throws IOException if the connection fails
+	 */
+	public MatchClient(SocketAddress address) throws IOException {
+		if (address instanceof UnixDomainSocketAddress) {
+			channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+			channel.connect(address);
+		} else {
+			channel = SocketChannel.open(address);
+		}
+		in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8),
+				1 << 16);
+		out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8),
+				1 << 16);
+	}
+
+	/**
+	 * Matches a batch of inputs against a registered automaton.
+	 * @param name the name of the automaton
+	 * @param inputs the inputs, none of which may contain a line break
+	 * @return result[i] is true if inputs[i] is accepted
+	 * @throws IOException if the server reports an error or the connection fails
+	 */
+	public boolean[] match(String name, List<String> inputs) throws IOException {
+		out.write("MATCH " + name + " " + inputs.size() + "\n");
+		for (String s : inputs) {
+			out.write(s);
+			out.write('\n');
+		}
+		out.flush();
+		String reply = reply();
+		boolean[] ret = new boolean[inputs.size()];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = reply.charAt(i) == 'y';
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the names of the automata the server has loaded
+	 * @throws IOException if the connection fails
+	 */
+	public List<String> list() throws IOException {
+		out.write("LIST\n");
+		out.flush();
+		List<String> ret = new ArrayList<String>();
+		for (String name : reply().split(" ")) {
+			if (!name.isEmpty()) {
+				ret.add(name);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Reads a reply line and strips the "OK " prefix.
+	 */
+	private String reply() throws IOException {
+		String line = in.readLine();
+		if (line == null) {
+			throw new IOException("connection closed by server");
+		}
+		if (!line.startsWith("OK")) {
+			throw new IOException(line);
+		}
+		return line.length() > 3 ? line.substring(3) : "";
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			out.write("QUIT\n");
+			out.flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @param args - -p port or -u socket-path, then the automaton name
+	 * @throws IOException if the connection fails
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3 || !(args[0].equals("-p") || args[0].equals("-u"))) {
+			System.err.println("usage: MatchClient (-p port | -u socket-path) name < inputs");
+			System.exit(2);
+		}
+		SocketAddress address = args[0].equals("-u") ? UnixDomainSocketAddress.of(Path.of(args[1]))
+				: new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[1]));
+		List<String> inputs = new ArrayList<String>();
+		BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+		String line;
+		while ((line = stdin.readLine()) != null) {
+			inputs.add(line);
+		}
+		try (MatchClient client = new MatchClient(address)) {
+			for (boolean accepts : client.match(args[2], inputs)) {
+				System.out.println(accepts ? "yes" : "no");
+			}
+		}
+	}
+}
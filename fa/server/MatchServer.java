@@ -0,0 +1,209 @@
+package fa.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import fa.Matcher;
+
+/**
+ * Long running local matching service. Automata are loaded once into an
+ * AutomatonRegistry, and every connection is served on its own virtual
+ * thread (a pooled platform thread on JVMs without virtual threads).
+ *
+ * The protocol is line based UTF-8. A request is
+ * <pre>
+ * MATCH name count
+ * input 1
+ * ...
+ * input count
+ * </pre>
+ * and is answered by one line "OK " followed by a 'y' or 'n' per input,
+ * in order. "LIST" is answered by "OK " and the registered names, "QUIT"
+ * closes the connection, and errors are answered by "ERR message".
+ * Requests may be pipelined: replies are only flushed when no further
+ * request is waiting in the input buffer.
+ */
+public class MatchServer {
+	private final AutomatonRegistry registry;
+	private final ServerSocketChannel server;
+	private final ExecutorService executor;
+
+	/**
+	 * Binds the server without accepting connections yet
+	 * @param registry the automata to serve
+	 * @param address a loopback InetSocketAddress or a UnixDomainSocketAddress
+	 * @throws IOException if the address cannot be bound
+	 */
+	public MatchServer(AutomatonRegistry registry, SocketAddress address) throws IOException {
+		this.registry = registry;
+		if (address instanceof UnixDomainSocketAddress) {
+			server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		} else {
+			server = ServerSocketChannel.open();
+		}
+		server.bind(address);
+		executor = newExecutor();
+	}
+
+	/**
+	 * Uses a virtual thread per task when the JVM has them.
+	 */
+	private static ExecutorService newExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/**
+	 * @return the address the server is bound to
+	 * @throws IOException if the server is closed
+	 */
+	public SocketAddress getAddress() throws IOException {
+		return server.getLocalAddress();
+	}
+
+	/**
+	 * Accepts connections until the server is closed.
+	 */
+	public void serve() {
+		try {
+			while (true) {
+				SocketChannel ch = server.accept();
+				executor.execute(() -> handle(ch));
+			}
+		} catch (IOException e) {
+			// closed
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Stops accepting connections.
+	 * @throws IOException if closing fails
+	 */
+	public void close() throws IOException {
+		server.close();
+	}
+
+	private void handle(SocketChannel ch) {
+		try (SocketChannel c = ch;
+				BufferedReader in = new BufferedReader(
+						new InputStreamReader(Channels.newInputStream(c), StandardCharsets.UTF_8), 1 << 16);
+				Writer out = new BufferedWriter(
+						new OutputStreamWriter(Channels.newOutputStream(c), StandardCharsets.UTF_8), 1 << 16)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.equals("QUIT")) {
+					break;
+				}
+				request(line, in, out);
+				if (!in.ready()) {
+					out.flush();
+				}
+			}
+		} catch (IOException e) {
+			// the client went away
+		}
+	}
+
+	private void request(String line, BufferedReader in, Writer out) throws IOException {
+		StringTokenizer tk = new StringTokenizer(line, " ");
+		String cmd = tk.hasMoreTokens() ? tk.nextToken() : "";
+		if (cmd.equals("LIST")) {
+			out.write("OK");
+			for (String name : registry.getNames()) {
+				out.write(' ');
+				out.write(name);
+			}
+			out.write('\n');
+		} else if (cmd.equals("MATCH") && tk.countTokens() == 2) {
+			String name = tk.nextToken();
+			int count;
+			try {
+				count = Integer.parseInt(tk.nextToken());
+			} catch (NumberFormatException e) {
+				count = -1;
+			}
+			if (count < 0) {
+				out.write("ERR bad count\n");
+				return;
+			}
+			// the answers are written as the inputs are read, so the memory a
+			// request takes does not depend on the count the client sent
+			Matcher matcher = registry.get(name);
+			if (matcher != null) {
+				out.write("OK ");
+			}
+			for (int i = 0; i < count; i++) {
+				String input = in.readLine();
+				if (input == null) {
+					throw new IOException("truncated request");
+				}
+				if (matcher != null) {
+					out.write(matcher.accepts(input) ? 'y' : 'n');
+				}
+			}
+			if (matcher == null) {
+				out.write("ERR no automaton named " + name + "\n");
+			} else {
+				out.write('\n');
+			}
+		} else {
+			out.write("ERR unknown request\n");
+		}
+	}
+
+	/**
+	 * @param args - -p port or -u socket-path, then name=file pairs of
+	 *             NFA files to load
+	 * @throws IOException if the server cannot start
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2 || !(args[0].equals("-p") || args[0].equals("-u"))) {
+			System.err.println("usage: MatchServer (-p port | -u socket-path) name=file ...");
+			System.exit(2);
+		}
+		AutomatonRegistry registry = new AutomatonRegistry();
+		for (int i = 2; i < args.length; i++) {
+			int eq = args[i].indexOf('=');
+			if (eq <= 0) {
+				System.err.println("ERROR: expected name=file but got " + args[i]);
+				System.exit(2);
+			}
+			registry.load(args[i].substring(0, eq), new File(args[i].substring(eq + 1)));
+		}
+		SocketAddress address;
+		if (args[0].equals("-u")) {
+			Path path = Path.of(args[1]);
+			Files.deleteIfExists(path);
+			address = UnixDomainSocketAddress.of(path);
+		} else {
+			address = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[1]));
+		}
+		MatchServer server = new MatchServer(registry, address);
+		System.out.println("serving " + registry.getNames() + " on " + server.getAddress());
+		server.serve();
+	}
+}